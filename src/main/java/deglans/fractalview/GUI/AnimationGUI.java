@@ -16,6 +16,7 @@ import deglans.fractalview.mandelbrot.MandelbrotBase;
 import deglans.fractalview.mandelbrot.DataBox;
 import deglans.fractalview.mandelbrot.Animation;
 import deglans.fractalview.mandelbrot.FractalFactory;
+import deglans.fractalview.utility.RenderScheduler;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
@@ -33,7 +34,7 @@ import javafx.scene.layout.BorderPane;
 /**
  * AnimationGUI manage the interaction between user and Animation class.
  *
- * @version 0.12
+ * @version 0.13
  * @author Deglans Dalpasso
  */
 public class AnimationGUI extends BorderPane implements Initializable {
@@ -196,8 +197,7 @@ public class AnimationGUI extends BorderPane implements Initializable {
             }
         });
 
-        Thread thread = new Thread(fractalMakerStart);
-        thread.start();
+        RenderScheduler.getDefault().start(fractalMakerStart);
 
         ae.consume();
     }
@@ -245,8 +245,7 @@ public class AnimationGUI extends BorderPane implements Initializable {
             }
         });
 
-        Thread thread = new Thread(fractalMakerEnd);
-        thread.start();
+        RenderScheduler.getDefault().start(fractalMakerEnd);
 
         ae.consume();
     }
@@ -350,8 +349,7 @@ public class AnimationGUI extends BorderPane implements Initializable {
 
         pbRendering.progressProperty().bind(animationMaker.progressProperty());
 
-        Thread thread = new Thread(animationMaker);
-        thread.start();
+        RenderScheduler.getDefault().start(animationMaker);
     }
 
     /**
@@ -12,33 +12,63 @@ package deglans.fractalview.GUI;
 
 import deglans.fractalview.buddhabrot.BuddhabrotBase;
 import deglans.fractalview.buddhabrot.BuddhabrotSimple;
+import deglans.fractalview.buddhabrot.Checkpoint;
+import deglans.fractalview.buddhabrot.NebulabrotSimple;
+import deglans.fractalview.buddhabrot.ToneMapper;
+import deglans.fractalview.utility.CartesianPlane;
 import deglans.fractalview.utility.Complex;
+import deglans.fractalview.utility.RenderSurface;
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.ResourceBundle;
+import java.util.stream.Collectors;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.paint.Color;
+import javafx.stage.WindowEvent;
 
 /**
  * BuddhabrotGUI manage the interaction between user and BuddhabrotSimple.
  *
- * @version 0.1
+ * @version 0.18
  * @author Deglans Dalpasso
  */
 public class BuddhabrotGUI extends BorderPane implements Initializable {
 
+    /**
+     * Time in milliseconds between two checkpoints of the random sampling.
+     */
+    public static final long CHECKPOINT_INTERVAL = 60000;
+
     /**
      * The fractal maker.
      */
     private BuddhabrotBase fractalMaker = null;
 
+    /**
+     * Painter of the partial images on the canvas while they are calculated.
+     */
+    private DirtyRegionPainter painter = null;
+
+    /**
+     * The display surface reused by the renderings of the same size, so the
+     * image shown is written only by the JavaFX thread.
+     */
+    private RenderSurface surface = null;
+
     /**
      * CartesianCanvasGUI.
      */
@@ -51,6 +81,12 @@ public class BuddhabrotGUI extends BorderPane implements Initializable {
     @FXML
     private ProgressBar pbRendering;
 
+    /**
+     * Label for the information about the last rendering.
+     */
+    @FXML
+    private Label lbInfo;
+
     /**
      * TextField for the power.
      */
@@ -78,6 +114,82 @@ public class BuddhabrotGUI extends BorderPane implements Initializable {
     @FXML
     private TextField tfSupersampling;
 
+    /**
+     * ComboBox for the curve of the tone mapping.
+     */
+    @FXML
+    private ComboBox<ToneMapper.Curve> cbToneCurve;
+
+    /**
+     * TextField for the fraction of the non-zero values under the white point
+     * of the tone curve (1 for the maximum value).
+     */
+    @FXML
+    private TextField tfWhitePercentile;
+
+    /**
+     * CheckBox for the Nebulabrot.
+     */
+    @FXML
+    private CheckBox cbNebulabrot;
+
+    /**
+     * TextField for the max iterations of the bands of the Nebulabrot, as a list
+     * (for example "50, 500, 5000") colored from blue to red.
+     */
+    @FXML
+    private TextField tfBandLimits;
+
+    /**
+     * CheckBox for the random sampling.
+     */
+    @FXML
+    private CheckBox cbRandomSampling;
+
+    /**
+     * CheckBox for the Metropolis-Hastings sampling of the random seeds.
+     */
+    @FXML
+    private CheckBox cbImportanceSampling;
+
+    /**
+     * TextField for the time budget in seconds of the random sampling.
+     */
+    @FXML
+    private TextField tfTimeBudget;
+
+    /**
+     * TextField for the number of seeds of the random sampling.
+     */
+    @FXML
+    private TextField tfSampleBudget;
+
+    /**
+     * TextField for the convergence of the random sampling.
+     */
+    @FXML
+    private TextField tfConvergence;
+
+    /**
+     * TextField for the checkpoint files, separated by the path separator:
+     * the calculus is saved in the first one.
+     */
+    @FXML
+    private TextField tfCheckpoint;
+
+    /**
+     * CheckBox for resume the calculus from the checkpoint files: the view and
+     * the parameters are taken from the first file and all the files are added.
+     */
+    @FXML
+    private CheckBox cbResume;
+
+    /**
+     * CheckBox for only draw the checkpoint files.
+     */
+    @FXML
+    private CheckBox cbRedrawOnly;
+
     /**
      * Create FractalGUI by loading FractalGUI.fxml.
      *
@@ -103,25 +215,32 @@ public class BuddhabrotGUI extends BorderPane implements Initializable {
      */
     @FXML
     public void handleStartRenderingOnAction(ActionEvent ae) {
-        stopRender();
         startRender();
         ae.consume();
     }
 
     /**
      * Handle the event onAction of the button "Stop Rendering".
+     * The random sampling ends and keeps the image of the seeds done.
      *
      * @param ae the ActionEvent.
      */
     @FXML
     public void handleStopRenderingOnAction(ActionEvent ae) {
-        stopRender();
+        if ((fractalMaker != null) && fractalMaker.isRunning() && cbRandomSampling.isSelected()) {
+            fractalMaker.requestStop();
+        }
+        else {
+            stopRender();
+        }
         ae.consume();
     }
 
     /**
      * Initialize the FractalGUI.
      * Set the Callback, the TextField and the ComboBox.
+     * When the window is closed the rendering is stopped and the memory kept
+     * for the next histograms is freed.
      *
      * @param url
      * @param rb
@@ -132,33 +251,180 @@ public class BuddhabrotGUI extends BorderPane implements Initializable {
             startRender();
             return null;
         });
+        painter = new DirtyRegionPainter(canvas);
+
+        sceneProperty().addListener((sceneObservable, oldScene, scene) -> {
+            if (scene != null) {
+                scene.windowProperty().addListener((windowObservable, oldWindow, window) -> {
+                    if (window != null) {
+                        window.addEventHandler(WindowEvent.WINDOW_HIDDEN, we -> {
+                            stopRender();
+                            BuddhabrotBase.releaseMemory();
+                        });
+                    }
+                });
+            }
+        });
 
         tfMaxIterations.setText("100");
         tfPower.setText("(2.0, 0.0)");
         tfColorZero.setText("#000000");
         tfColorMax.setText("#ffffff");
+        cbToneCurve.setItems(FXCollections.observableArrayList(ToneMapper.Curve.values()));
+        cbToneCurve.setValue(ToneMapper.Curve.LINEAR);
+        tfWhitePercentile.setText("1");
+        tfBandLimits.setText("50, 500, 5000");
+        tfTimeBudget.setText("60");
+        tfSampleBudget.setText("0");
+        tfConvergence.setText("0.01");
+        tfCheckpoint.setText("");
     }
 
     /**
-     * Render the selected fractal with the given parameters.
+     * Render the selected fractal with the given parameters,
+     * the previous rendering is stopped.
      */
     private void startRender() {
-        WritableImage wi = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
+        stopRender();
+
+        File[] files = getCheckpointFiles();
+        boolean resume = (cbResume.isSelected() || cbRedrawOnly.isSelected()) && (files.length > 0);
+
+        // The parameters of the first checkpoint replace the ones of the GUI
+        Checkpoint checkpoint = null;
+        if (resume) {
+            try {
+                checkpoint = Checkpoint.read(files[0]);
+            }
+            catch (IOException exception) {
+                System.err.println(exception.toString());
+                lbInfo.setText("Checkpoint not loaded: " + exception.getMessage());
+                return;
+            }
+            // The canvas keeps its size, so only a checkpoint of the same size is resumed
+            CartesianPlane view = canvas.getCartesianPlane();
+            if ((checkpoint.getPlane().getWidth() != view.getWidth())
+                    || (checkpoint.getPlane().getHeight() != view.getHeight())) {
+                lbInfo.setText(String.format("Checkpoint not loaded: its size %dx%d is not the view size %dx%d",
+                        (int) checkpoint.getPlane().getWidth(), (int) checkpoint.getPlane().getHeight(),
+                        (int) view.getWidth(), (int) view.getHeight()));
+                return;
+            }
+            showCheckpoint(checkpoint);
+        }
+        CartesianPlane plane = (checkpoint != null) ? checkpoint.getPlane() : canvas.getCartesianPlane();
+        Complex power = (checkpoint != null) ? checkpoint.getPower() : getPower();
+        int supersampling = (checkpoint != null) ? checkpoint.getSupersampling() : getSupersampling();
+        boolean nebulabrot = (checkpoint != null) ? (checkpoint.getBandLimits().length > 1)
+                : cbNebulabrot.isSelected();
+        Checkpoint.Sampling sampling = (checkpoint != null) ? checkpoint.getSampling()
+                : !cbRandomSampling.isSelected() ? Checkpoint.Sampling.GRID
+                : cbImportanceSampling.isSelected() ? Checkpoint.Sampling.METROPOLIS
+                : Checkpoint.Sampling.RANDOM;
+
+        // The surface is reused while the view keeps its size
+        if ((surface == null) || (surface.getWidth() != (int) plane.getWidth())
+                || (surface.getHeight() != (int) plane.getHeight())) {
+            surface = new RenderSurface((int) plane.getWidth(), (int) plane.getHeight());
+        }
+        final RenderSurface target = surface;
+        WritableImage wi = target.getImage();
+
+        BuddhabrotSimple buddhabrot;
+        if (nebulabrot) {
+            int[] limits = (checkpoint != null) ? checkpoint.getBandLimits() : getBandLimits();
+            buddhabrot = new NebulabrotSimple(plane, wi,
+                    limits, NebulabrotSimple.getDefaultColors(limits.length),
+                    power, supersampling);
+        }
+        else {
+            buddhabrot = new BuddhabrotSimple(plane, wi,
+                    (checkpoint != null) ? checkpoint.getMaxIterations() : getMaxIterations(),
+                    power, supersampling, getColorZero(), getColorMax());
+        }
+        fractalMaker = buddhabrot;
+        fractalMaker.setToneMapper(new ToneMapper(cbToneCurve.getValue(),
+                Double.parseDouble(tfWhitePercentile.getText())));
+        if (sampling == Checkpoint.Sampling.METROPOLIS) {
+            fractalMaker.setMetropolisSampling(Long.parseLong(tfSampleBudget.getText()),
+                    (long) (Double.parseDouble(tfTimeBudget.getText()) * 1000),
+                    Double.parseDouble(tfConvergence.getText()));
+        }
+        else if (sampling == Checkpoint.Sampling.RANDOM) {
+            fractalMaker.setRandomSampling(Long.parseLong(tfSampleBudget.getText()),
+                    (long) (Double.parseDouble(tfTimeBudget.getText()) * 1000),
+                    Double.parseDouble(tfConvergence.getText()));
+        }
 
-        fractalMaker = new BuddhabrotSimple(canvas.getCartesianPlane(), wi,
-                getMaxIterations(), getPower(), getSupersampling(),
-                getColorZero(), getColorMax());
+        if (resume) {
+            try {
+                for (File file : files) {
+                    fractalMaker.loadCheckpoint(file);
+                }
+            }
+            catch (IOException | IllegalArgumentException exception) {
+                System.err.println(exception.toString());
+                fractalMaker.release();
+                fractalMaker = null;
+                lbInfo.setText("Checkpoint not loaded: " + exception.getMessage());
+                return;
+            }
+            fractalMaker.setRedrawOnly(cbRedrawOnly.isSelected());
+        }
+        if ((files.length > 0) && !cbRedrawOnly.isSelected()) {
+            fractalMaker.setCheckpoint(files[0], CHECKPOINT_INTERVAL);
+        }
 
         pbRendering.progressProperty().bind(fractalMaker.progressProperty());
+        fractalMaker.messageProperty().addListener(
+            (ObservableValue<? extends String> observable, String oldMessage, String message) -> {
+                if (!message.isEmpty()) {
+                    lbInfo.setText(message);
+                }
+        });
 
+        fractalMaker.setSurface(target);
+        painter.setSurface(target);
         fractalMaker.setOnSucceeded(t -> {
+            painter.setSurface(null);
+            target.update();
             synchronized (canvas) {
                 canvas.getGraphicsContext2D().drawImage(wi, 0, 0);
             }
+            canvas.setRetainedImage(wi);
+            long seeds = Math.max(1, buddhabrot.getSeeds());
+            long rejected = buddhabrot.getBulbRejections() + buddhabrot.getCycleRejections();
+            lbInfo.setText(String.format("Time: %d ms, rejected seeds: %.1f%% (bulbs %d, cycles %d), "
+                    + "saved iterations: %d, cached seeds: %d, %s", buddhabrot.getValue(),
+                    100.0 * rejected / seeds, buddhabrot.getBulbRejections(),
+                    buddhabrot.getCycleRejections(), buddhabrot.getSavedIterations(),
+                    buddhabrot.getCachedSeeds(), buddhabrot.getScheduler().getMetrics())
+                    + (buddhabrot.getMessage().isEmpty() ? "" : ", " + buddhabrot.getMessage()));
         });
 
-        Thread thread = new Thread(fractalMaker);
-        thread.start();
+        fractalMaker.getScheduler().start(fractalMaker);
+    }
+
+    /**
+     * Show the view and the parameters of a checkpoint in the GUI.
+     *
+     * @param checkpoint the checkpoint to be resumed.
+     */
+    private void showCheckpoint(Checkpoint checkpoint) {
+        canvas.setCartesianPlane(checkpoint.getPlane());
+        tfPower.setText(checkpoint.getPower().toString());
+        tfSupersampling.setText(Integer.toString(checkpoint.getSupersampling()));
+        int[] limits = checkpoint.getBandLimits();
+        cbNebulabrot.setSelected(limits.length > 1);
+        if (limits.length > 1) {
+            tfBandLimits.setText(Arrays.stream(limits).mapToObj(Integer::toString)
+                    .collect(Collectors.joining(", ")));
+        }
+        else {
+            tfMaxIterations.setText(Integer.toString(checkpoint.getMaxIterations()));
+        }
+        cbRandomSampling.setSelected(checkpoint.getSampling() != Checkpoint.Sampling.GRID);
+        cbImportanceSampling.setSelected(checkpoint.getSampling() == Checkpoint.Sampling.METROPOLIS);
     }
 
     /**
@@ -168,6 +434,9 @@ public class BuddhabrotGUI extends BorderPane implements Initializable {
         if (fractalMaker != null) {
             fractalMaker.cancel();
         }
+        if (painter != null) {
+            painter.setSurface(null);
+        }
         pbRendering.progressProperty().unbind();
         pbRendering.setProgress(0);
     }
@@ -181,6 +450,28 @@ public class BuddhabrotGUI extends BorderPane implements Initializable {
         return Integer.parseInt(tfMaxIterations.getText());
     }
 
+    /**
+     * Get the checkpoint files from tfCheckpoint.
+     *
+     * @return the checkpoint files (empty for no checkpoint).
+     */
+    private File[] getCheckpointFiles() {
+        return Arrays.stream(tfCheckpoint.getText().split(File.pathSeparator))
+                .map(String::trim).filter(path -> !path.isEmpty())
+                .map(File::new).toArray(File[]::new);
+    }
+
+    /**
+     * Get the max iterations of the bands from tfBandLimits, sorted ascending.
+     *
+     * @return the max iterations of the bands.
+     */
+    private int[] getBandLimits() {
+        return Arrays.stream(tfBandLimits.getText().split(","))
+                .mapToInt(limit -> Integer.parseInt(limit.trim()))
+                .sorted().toArray();
+    }
+
     private int getSupersampling() {
         return Integer.parseInt(tfSupersampling.getText());
     }
@@ -16,6 +16,7 @@ import deglans.fractalview.utility.CanvasPoint;
 import deglans.fractalview.mandelbrot.DataBox;
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.ResourceBundle;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -34,12 +35,30 @@ import javafx.util.Callback;
  * CartesianCanvasGUI manage the interaction between user and fractals.
  * This class allow to zoom and drag&drop fractals.
  * With right click you can select a constant for Julia like fractals.
+ * During a zoom the previous image is scaled around the mouse position
+ * and shown until the new one is drawn. The image is taken once at the start
+ * of a zoom gesture (the last rendered image or a snapshot of the canvas) and
+ * scaled by all its steps, until a new image is rendered or the view is moved.
+ * During a drag the last rendered image (see setRetainedImage()) is moved
+ * and the uncovered margins are filled by a low resolution preview
+ * (see setCallbackSample()), calculated within a time budget for every
+ * mouse event; the full rendering starts on release.
  *
- * @version 0.11
+ * @version 0.15
  * @author Deglans Dalpasso
  */
 public class CartesianCanvasGUI extends Canvas implements Initializable {
 
+    /**
+     * Size in pixels of the cells of the drag preview.
+     */
+    public static final int PREVIEW_CELL = 8;
+
+    /**
+     * Time in nanoseconds for calculate the drag preview at every mouse event.
+     */
+    public static final long PREVIEW_BUDGET = 8000000L;
+
     /**
      * CartesianPlane for conversions.
      */
@@ -70,6 +89,46 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
      */
     private Image imageDragAndDrop;
 
+    /**
+     * The last rendered image of the current view (eventually null).
+     */
+    private Image retainedImage = null;
+
+    /**
+     * The image of the view at the start of the zoom gesture (null if no zoom is in progress).
+     */
+    private Image zoomImage = null;
+
+    /**
+     * The x coordinate of zoomImage on the canvas.
+     */
+    private double zoomX;
+
+    /**
+     * The y coordinate of zoomImage on the canvas.
+     */
+    private double zoomY;
+
+    /**
+     * The width of zoomImage on the canvas.
+     */
+    private double zoomWidth;
+
+    /**
+     * The height of zoomImage on the canvas.
+     */
+    private double zoomHeight;
+
+    /**
+     * Callback for calculate the color of a point of the drag preview.
+     */
+    private Callback<Complex, Color> sample = null;
+
+    /**
+     * The cells of the drag preview already calculated, by position.
+     */
+    private final HashMap<Long, Color> previewCells = new HashMap<>();
+
     /**
      * Create CartesianCanvasGUI by loading CartesianCanvasGUI.fxml.
      */
@@ -129,7 +188,9 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
     public void handleOnMousePressed(MouseEvent me) {
         if (me.getButton() == MouseButton.PRIMARY) {
             startDragAndDrop = new CanvasPoint(me.getX(), me.getY());
-            imageDragAndDrop = snapshot(null, null);
+            imageDragAndDrop = (retainedImage != null) ? retainedImage : snapshot(null, null);
+            previewCells.clear();
+            zoomImage = null;
         }
         me.consume();
     }
@@ -142,11 +203,19 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
     @FXML
     public void handleOnMouseDragged(MouseEvent me) {
         if (me.isPrimaryButtonDown()) {
+            double dx = me.getX() - startDragAndDrop.getX();
+            double dy = me.getY() - startDragAndDrop.getY();
+            long deadline = System.nanoTime() + PREVIEW_BUDGET;
+
+            // Only the moved image and the uncovered margins are drawn
             GraphicsContext gc = getGraphicsContext2D();
-            gc.setFill(Color.WHITE);
-            gc.fillRect(0, 0, getWidth(), getHeight());
-            gc.drawImage(imageDragAndDrop,
-                    me.getX() - startDragAndDrop.getX(), me.getY() - startDragAndDrop.getY());
+            gc.drawImage(imageDragAndDrop, dx, dy);
+            double marginX = (dx > 0) ? 0 : Math.max(0, getWidth() + dx);
+            double marginY = (dy > 0) ? 0 : Math.max(0, getHeight() + dy);
+            drawPreview(gc, marginX, 0, Math.min(Math.abs(dx), getWidth()), getHeight(),
+                    dx, dy, deadline);
+            drawPreview(gc, Math.max(0, dx), marginY, Math.max(0, getWidth() - Math.abs(dx)),
+                    Math.min(Math.abs(dy), getHeight()), dx, dy, deadline);
         }
         me.consume();
     }
@@ -162,6 +231,7 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
             Complex start = cartesianPlane.toComplex(startDragAndDrop.getX(), startDragAndDrop.getY());
             Complex stop = cartesianPlane.toComplex(me.getX(), me.getY());
             cartesianPlane.move(start, stop);
+            retainedImage = null;
             if (render != null) {
                 render.call(null);
             }
@@ -181,7 +251,26 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
     public void handleOnScroll(ScrollEvent se) {
         double scaleBase = se.isControlDown() ? 1.1 : se.isShiftDown() ? 10 : 2;
         double byScale = (se.getDeltaY() > 0) ? 1 / scaleBase : scaleBase;
+        if (zoomImage == null) {
+            zoomImage = (retainedImage != null) ? retainedImage : snapshot(null, null);
+            zoomX = 0;
+            zoomY = 0;
+            zoomWidth = getWidth();
+            zoomHeight = getHeight();
+        }
         cartesianPlane.zoomAtMousePos(cartesianPlane.toComplex(se.getX(), se.getY()), byScale);
+        retainedImage = null;
+
+        // The mouse position is fixed, the other pixels move by 1 / byScale
+        zoomX = se.getX() + (zoomX - se.getX()) / byScale;
+        zoomY = se.getY() + (zoomY - se.getY()) / byScale;
+        zoomWidth /= byScale;
+        zoomHeight /= byScale;
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+        gc.drawImage(zoomImage, zoomX, zoomY, zoomWidth, zoomHeight);
+
         if (render != null) {
             render.call(null);
         }
@@ -206,6 +295,8 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
     public void resetPlane() {
         cartesianPlane = new CartesianPlane(getWidth(), getHeight(),
                 DataBox.DEFAULT_UP_LEFT, DataBox.DEFAULT_DOWN_RIGHT);
+        retainedImage = null;
+        zoomImage = null;
 
         if (render != null) {
             render.call(null);
@@ -217,6 +308,78 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
         }
     }
 
+    /**
+     * Fill a region of the canvas with the drag preview: cells of PREVIEW_CELL
+     * pixels aligned to the view at the start of the drag. The cells not yet
+     * calculated are calculated until the deadline, the others are white.
+     *
+     * @param gc the GraphicsContext of the canvas.
+     * @param x the x coordinate of the region.
+     * @param y the y coordinate of the region.
+     * @param w the width of the region.
+     * @param h the height of the region.
+     * @param dx the horizontal movement of the drag.
+     * @param dy the vertical movement of the drag.
+     * @param deadline the time (see System.nanoTime()) to stop calculating cells.
+     */
+    private void drawPreview(GraphicsContext gc, double x, double y, double w, double h,
+            double dx, double dy, long deadline) {
+
+        if ((w <= 0) || (h <= 0)) {
+            return;
+        }
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(x, y, w, h);
+        gc.clip();
+
+        // Cells in the pixels of the view at the start of the drag
+        int firstX = (int) Math.floor((x - dx) / PREVIEW_CELL);
+        int lastX = (int) Math.floor((x + w - dx) / PREVIEW_CELL);
+        int firstY = (int) Math.floor((y - dy) / PREVIEW_CELL);
+        int lastY = (int) Math.floor((y + h - dy) / PREVIEW_CELL);
+
+        for (int cy = firstY; cy <= lastY; cy++) {
+            for (int cx = firstX; cx <= lastX; cx++) {
+                long key = ((long) cx << 32) | (cy & 0xffffffffL);
+                Color color = previewCells.get(key);
+                if ((color == null) && (sample != null) && (System.nanoTime() < deadline)) {
+                    color = sample.call(cartesianPlane.toComplex((cx + 0.5) * PREVIEW_CELL,
+                            (cy + 0.5) * PREVIEW_CELL));
+                    previewCells.put(key, color);
+                }
+                gc.setFill((color != null) ? color : Color.WHITE);
+                gc.fillRect(cx * PREVIEW_CELL + dx, cy * PREVIEW_CELL + dy, PREVIEW_CELL, PREVIEW_CELL);
+            }
+        }
+
+        gc.restore();
+    }
+
+    /**
+     * Set the last rendered image of the current view, moved during the drag
+     * and scaled during the zoom without take a snapshot of the canvas.
+     * It ends the current zoom gesture: it is called with the new image when
+     * a rendering ends and with null when a rendering starts, so the next
+     * zoom takes the image again.
+     *
+     * @param image the last rendered image (null for use a snapshot).
+     */
+    public void setRetainedImage(Image image) {
+        this.retainedImage = image;
+        this.zoomImage = null;
+    }
+
+    /**
+     * Set the Callback for calculate the color of a point of the drag preview.
+     *
+     * @param sample the Callback function for the drag preview (null for no preview).
+     */
+    public void setCallbackSample(Callback<Complex, Color> sample) {
+        this.sample = sample;
+    }
+
     /**
      * Return the CartesianPlane.
      *
@@ -226,6 +389,17 @@ public class CartesianCanvasGUI extends Canvas implements Initializable {
         return cartesianPlane;
     }
 
+    /**
+     * Set the CartesianPlane of a view rendered elsewhere (for example a
+     * resumed calculus), without call the Callback for the rendering.
+     *
+     * @param cartesianPlane the CartesianPlane of the view.
+     */
+    public void setCartesianPlane(CartesianPlane cartesianPlane) {
+        this.cartesianPlane = cartesianPlane;
+        setRetainedImage(null);
+    }
+
     /**
      * Set the Callback for the fractal rendering.
      *
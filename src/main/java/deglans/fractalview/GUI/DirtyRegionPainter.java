@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.GUI;
+
+import deglans.fractalview.utility.RenderSurface;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
+
+/**
+ * DirtyRegionPainter draws on a canvas the parts of a RenderSurface written
+ * by the calculus threads.
+ * At every pulse of the JavaFX thread the dirty part of the raster is copied
+ * into the image of the surface and drawn with a single drawImage(), so the
+ * JavaFX thread is never flooded by the updates.
+ *
+ * @version 0.3
+ * @author Deglans Dalpasso
+ */
+public class DirtyRegionPainter extends AnimationTimer {
+
+    /**
+     * The canvas where draw the image.
+     */
+    private final Canvas canvas;
+
+    /**
+     * The display surface being calculated (eventually null).
+     */
+    private RenderSurface surface = null;
+
+    /**
+     * Create a DirtyRegionPainter for a canvas and start it.
+     *
+     * @param canvas the canvas where draw the image.
+     */
+    public DirtyRegionPainter(Canvas canvas) {
+        this.canvas = canvas;
+        start();
+    }
+
+    /**
+     * Set the display surface being calculated.
+     *
+     * @param surface the display surface being calculated (null for none).
+     */
+    public synchronized void setSurface(RenderSurface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Draw the dirty part of the surface.
+     *
+     * @param now the time of the pulse in nanoseconds.
+     */
+    @Override
+    public void handle(long now) {
+        RenderSurface current;
+        synchronized (this) {
+            current = surface;
+        }
+        if (current == null) {
+            return;
+        }
+
+        // The pixels not yet calculated are transparent
+        Rectangle2D area = current.update();
+        if (area != null) {
+            synchronized (canvas) {
+                canvas.getGraphicsContext2D().drawImage(current.getImage(),
+                        area.getMinX(), area.getMinY(), area.getWidth(), area.getHeight(),
+                        area.getMinX(), area.getMinY(), area.getWidth(), area.getHeight());
+            }
+        }
+    }
+
+}
@@ -10,13 +10,23 @@
  */
 package deglans.fractalview.GUI;
 
+import deglans.fractalview.utility.CartesianPlane;
 import deglans.fractalview.utility.Complex;
 import deglans.fractalview.mandelbrot.MandelbrotBase;
+import deglans.fractalview.mandelbrot.AutoIterations;
 import deglans.fractalview.mandelbrot.DataBox;
 import deglans.fractalview.mandelbrot.FractalFactory;
+import deglans.fractalview.mandelbrot.IterationState;
+import deglans.fractalview.mandelbrot.PreviewSampler;
+import deglans.fractalview.mandelbrot.ProgressiveRender;
+import deglans.fractalview.mandelbrot.TileCache;
+import deglans.fractalview.utility.RenderScheduler;
+import deglans.fractalview.utility.RenderSurface;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
@@ -24,25 +34,89 @@ import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
+import javafx.util.Duration;
 
 /**
  * FractalGUI manage the interaction between user and FractalFactory.
+ * Every rendering has a generation number: a new request cancels the
+ * current renderings and the callbacks of older generations are ignored.
+ * The requests from the canvas are coalesced, so during a fast navigation
+ * only the last view is calculated.
+ * The state for the incremental deepening is kept only while the view does
+ * not change.
  *
- * @version 0.12
+ * @version 0.26
  * @author Deglans Dalpasso
  */
 public class FractalGUI extends BorderPane implements Initializable {
 
+    /**
+     * Delay in milliseconds for coalesce the render requests from the canvas.
+     */
+    public static final int COALESCE_DELAY = 50;
+
     /**
      * The fractal maker.
      */
     private MandelbrotBase fractalMaker = null;
 
+    /**
+     * The progressive fractal maker.
+     */
+    private ProgressiveRender progressiveMaker = null;
+
+    /**
+     * Task that choose maxIterations before the rendering.
+     */
+    private AutoIterations autoIterations = null;
+
+    /**
+     * The tiles of the previous renderings, reused after a pan.
+     */
+    private final TileCache tileCache = new TileCache();
+
+    /**
+     * The RenderScheduler of the probes and of the renderings.
+     */
+    private final RenderScheduler scheduler = RenderScheduler.getDefault();
+
+    /**
+     * Painter of the tiles on the canvas while they are calculated.
+     */
+    private DirtyRegionPainter painter = null;
+
+    /**
+     * The display surface reused by the renderings of the canvas.
+     */
+    private RenderSurface surface = null;
+
+    /**
+     * The state of the pixels of the last rendering, for the incremental deepening.
+     */
+    private IterationState iterationState = null;
+
+    /**
+     * The view of the last rendering started (eventually null).
+     */
+    private CartesianPlane renderedView = null;
+
+    /**
+     * Generation of the last rendering.
+     */
+    private long generation = 0;
+
+    /**
+     * Delay before a render requested by the canvas, restarted by every request.
+     */
+    private final PauseTransition renderDelay = new PauseTransition(Duration.millis(COALESCE_DELAY));
+
     /**
      * CartesianCanvasGUI.
      */
@@ -85,6 +159,24 @@ public class FractalGUI extends BorderPane implements Initializable {
     @FXML
     private TextField tfConstant;
 
+    /**
+     * TextField for the number of samples per side of the anti-aliasing.
+     */
+    @FXML
+    private TextField tfSupersampling;
+
+    /**
+     * Label for the information about the last rendering.
+     */
+    @FXML
+    private Label lbInfo;
+
+    /**
+     * CheckBox for choose automatically maxIterations.
+     */
+    @FXML
+    private CheckBox cbAutoIterations;
+
     /**
      * Create FractalGUI by loading FractalGUI.fxml.
      *
@@ -115,6 +207,18 @@ public class FractalGUI extends BorderPane implements Initializable {
         ae.consume();
     }
 
+    /**
+     * Handle the event onAction of the button "Progressive Rendering".
+     *
+     * @param ae the ActionEvent.
+     */
+    @FXML
+    public void handleProgressiveRenderingOnAction(ActionEvent ae) {
+        stopRender();
+        startProgressiveRender();
+        ae.consume();
+    }
+
     /**
      * Handle the event onAction of the button "Stop Rendering".
      *
@@ -122,7 +226,9 @@ public class FractalGUI extends BorderPane implements Initializable {
      */
     @FXML
     public void handleStopRenderingOnAction(ActionEvent ae) {
+        // The callbacks of the stopped renderings must not start new ones
         stopRender();
+        generation++;
         ae.consume();
     }
 
@@ -136,9 +242,11 @@ public class FractalGUI extends BorderPane implements Initializable {
     @Override
     public void initialize(URL url, ResourceBundle rb) {
         canvas.setCallbackRender(obj -> {
-            startRender();
+            requestRender();
             return null;
         });
+        renderDelay.setOnFinished(ae -> startRender());
+        painter = new DirtyRegionPainter(canvas);
 
         canvas.setCallbackRightClick(z -> {
             setConstant(z);
@@ -148,6 +256,7 @@ public class FractalGUI extends BorderPane implements Initializable {
         tfMaxIterations.setText(Integer.toString(DataBox.DEFAULT_MAX_ITERATIONS));
         tfPower.setText(DataBox.DEFAULT_POWER.toString());
         tfConstant.setText(DataBox.DEFAULT_CONSTANT.toString());
+        tfSupersampling.setText("1");
 
         cbFractalType.setItems(FXCollections.observableArrayList(FractalFactory.FRACTAL_LIST));
         cbFractalType.getSelectionModel().selectedItemProperty().addListener(new ChangeListener() {
@@ -160,33 +269,222 @@ public class FractalGUI extends BorderPane implements Initializable {
     }
 
     /**
-     * Render the selected fractal with the given parameters.
+     * Request a rendering of the current view: the current renderings are
+     * cancelled immediately, the new one starts after COALESCE_DELAY
+     * milliseconds without other requests.
+     */
+    private void requestRender() {
+        stopRender();
+        generation++;
+        renderDelay.playFromStart();
+    }
+
+    /**
+     * Render the selected fractal with the given parameters,
+     * if cbAutoIterations is selected maxIterations is chosen first.
      */
     private void startRender() {
-        WritableImage wi = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
+        // The renderings of the previous generations would draw over the new view
+        stopRender();
+        final long gen = ++generation;
+
+        // The drag preview uses the current fractal and parameters
+        canvas.setRetainedImage(null);
+        canvas.setCallbackSample(new PreviewSampler(
+                cbFractalType.getSelectionModel().getSelectedItem().toString(),
+                getDataBox(null), colorPaletteGUI.getColorPalette(getMaxIterations())));
+
+        if (cbAutoIterations.isSelected()) {
+            startAutoIterations(gen);
+        }
+        else {
+            startFractalRender(gen);
+        }
+    }
+
+    /**
+     * Choose maxIterations with a low resolution probe of the view,
+     * then render the fractal; if the probe fails or is cancelled the
+     * fractal is rendered with the maxIterations of the field.
+     *
+     * @param gen the generation of the rendering.
+     */
+    private void startAutoIterations(long gen) {
+        autoIterations = new AutoIterations(cbFractalType.getSelectionModel().getSelectedItem().toString(),
+                getDataBox(null), scheduler);
+
+        pbRendering.progressProperty().bind(autoIterations.progressProperty());
+
+        final AutoIterations probe = autoIterations;
+        autoIterations.setOnSucceeded(t -> {
+            if (gen != generation) {
+                return;
+            }
+            tfMaxIterations.setText(Integer.toString(probe.getValue()));
+            startFractalRender(gen);
+            lbInfo.setText(String.format("Auto max iterations: %d", probe.getValue()));
+        });
+        autoIterations.setOnFailed(t -> {
+            if (gen != generation) {
+                return;
+            }
+            System.err.println(probe.getException().toString());
+            pbRendering.progressProperty().unbind();
+            startFractalRender(gen);
+            lbInfo.setText("Auto max iterations failed: " + probe.getException().getMessage());
+        });
+        autoIterations.setOnCancelled(t -> {
+            if (gen != generation) {
+                return;
+            }
+            pbRendering.progressProperty().unbind();
+            startFractalRender(gen);
+        });
+
+        autoIterations.getScheduler().start(autoIterations);
+    }
+
+    /**
+     * Render the selected fractal with the given parameters.
+     *
+     * @param gen the generation of the rendering.
+     */
+    private void startFractalRender(long gen) {
+        final RenderSurface target = getSurface();
+        WritableImage wi = target.getImage();
 
         fractalMaker = FractalFactory.bulidFractal(cbFractalType.getSelectionModel().getSelectedItem().toString(),
                 getDataBox(wi), colorPaletteGUI.getColorPalette(getMaxIterations()));
 
+        fractalMaker.setAntialiasing(getSupersampling(), MandelbrotBase.DEFAULT_ANTIALIASING_THRESHOLD);
+        // The state is kept only for a new rendering of the same view, not after a pan or a zoom
+        if (isSameView()) {
+            fractalMaker.setIterationState(iterationState);
+        }
+        else {
+            iterationState = null;
+        }
+        CartesianPlane view = canvas.getCartesianPlane();
+        renderedView = new CartesianPlane(view.getWidth(), view.getHeight(),
+                view.getUpLeft(), view.getDownRight());
+        fractalMaker.setTileCache(tileCache);
+        fractalMaker.setScheduler(scheduler);
+
         pbRendering.progressProperty().bind(fractalMaker.progressProperty());
 
+        final MandelbrotBase maker = fractalMaker;
+        fractalMaker.setSurface(target);
+        painter.setSurface(target);
         fractalMaker.setOnSucceeded(t -> {
+            if (gen != generation) {
+                return;
+            }
+            painter.setSurface(null);
+            target.update();
+            synchronized (canvas) {
+                canvas.getGraphicsContext2D().drawImage(wi, 0, 0);
+            }
+            canvas.setRetainedImage(wi);
+            iterationState = maker.getIterationState();
+            lbInfo.setText(String.format("Time: %d ms, extra samples: %d (+%.1f%%), %s",
+                    maker.getValue(), maker.getExtraSamples(),
+                    100.0 * maker.getExtraSamples() / (wi.getWidth() * wi.getHeight()),
+                    maker.getScheduler().getMetrics()));
+        });
+
+        fractalMaker.getScheduler().start(fractalMaker);
+    }
+
+    /**
+     * Return the display surface of the canvas, the surface is reused while
+     * the canvas keeps its size.
+     *
+     * @return the display surface.
+     */
+    private RenderSurface getSurface() {
+        if ((surface == null) || (surface.getWidth() != (int) canvas.getWidth())
+                || (surface.getHeight() != (int) canvas.getHeight())) {
+            surface = new RenderSurface((int) canvas.getWidth(), (int) canvas.getHeight());
+        }
+        return surface;
+    }
+
+    /**
+     * Check if the view of the canvas is the view of the last rendering.
+     *
+     * @return true if the view is not moved, zoomed or resized.
+     */
+    private boolean isSameView() {
+        CartesianPlane view = canvas.getCartesianPlane();
+        return (renderedView != null)
+                && (renderedView.getWidth() == view.getWidth())
+                && (renderedView.getHeight() == view.getHeight())
+                && (renderedView.getUpLeft().getReal() == view.getUpLeft().getReal())
+                && (renderedView.getUpLeft().getImag() == view.getUpLeft().getImag())
+                && (renderedView.getDownRight().getReal() == view.getDownRight().getReal())
+                && (renderedView.getDownRight().getImag() == view.getDownRight().getImag());
+    }
+
+    /**
+     * Render the selected fractal with the progressive anti-aliasing,
+     * the canvas is updated after every pass by the DirtyRegionPainter.
+     */
+    private void startProgressiveRender() {
+        final long gen = ++generation;
+        final RenderSurface target = getSurface();
+        WritableImage wi = target.getImage();
+
+        progressiveMaker = new ProgressiveRender(cbFractalType.getSelectionModel().getSelectedItem().toString(),
+                getDataBox(wi), colorPaletteGUI.getColorPalette(getMaxIterations()));
+
+        pbRendering.progressProperty().bind(progressiveMaker.progressProperty());
+
+        final ProgressiveRender maker = progressiveMaker;
+        progressiveMaker.setScheduler(scheduler);
+        progressiveMaker.setSurface(target);
+        painter.setSurface(target);
+        progressiveMaker.setOnPass(pass -> {
+            Platform.runLater(() -> {
+                if (maker.isCancelled() || (gen != generation)) {
+                    return;
+                }
+                lbInfo.setText(String.format("Pass: %d, active pixels: %d",
+                        pass, maker.getActivePixels()));
+            });
+            return null;
+        });
+        progressiveMaker.setOnSucceeded(t -> {
+            if (gen != generation) {
+                return;
+            }
+            painter.setSurface(null);
+            target.update();
             synchronized (canvas) {
                 canvas.getGraphicsContext2D().drawImage(wi, 0, 0);
             }
+            canvas.setRetainedImage(wi);
         });
 
-        Thread thread = new Thread(fractalMaker);
-        thread.start();
+        progressiveMaker.getScheduler().start(progressiveMaker);
     }
 
     /**
-     * Stop the current rendering.
+     * Stop the current rendering and the pending requests.
      */
     public void stopRender() {
+        renderDelay.stop();
         if (fractalMaker != null) {
             fractalMaker.cancel();
         }
+        if (progressiveMaker != null) {
+            progressiveMaker.cancel();
+        }
+        if (autoIterations != null) {
+            autoIterations.cancel();
+        }
+        if (painter != null) {
+            painter.setSurface(null);
+        }
         pbRendering.progressProperty().unbind();
         pbRendering.setProgress(0);
     }
@@ -211,6 +509,15 @@ public class FractalGUI extends BorderPane implements Initializable {
         return Integer.parseInt(tfMaxIterations.getText());
     }
 
+    /**
+     * Get the number of samples per side of the anti-aliasing from tfSupersampling.
+     *
+     * @return the number of samples per side of the anti-aliasing.
+     */
+    private int getSupersampling() {
+        return Integer.parseInt(tfSupersampling.getText());
+    }
+
     /**
      * Get the power from tfPower.
      *
@@ -10,13 +10,20 @@
  */
 package deglans.fractalview.buddhabrot;
 
-import deglans.fractalview.utility.CanvasPoint;
 import deglans.fractalview.utility.CartesianPlane;
 import deglans.fractalview.utility.Complex;
-import java.util.ArrayList;
-import java.util.List;
+import deglans.fractalview.utility.ProgressMeter;
+import deglans.fractalview.utility.RenderScheduler;
+import deglans.fractalview.utility.RenderSurface;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import javafx.concurrent.Task;
 
 /**
@@ -24,23 +31,208 @@ import javafx.concurrent.Task;
  * https://en.wikipedia.org/wiki/Buddhabrot
  * https://it.wikipedia.org/wiki/Buddhabrot
  *
- * @version 0.1
+ * @version 0.26
  * @author Deglans Dalpasso
  */
 public abstract class BuddhabrotBase extends Task<Long> {
 
+    /**
+     * Number of partial images published during the calculus.
+     */
+    public static final int UPDATES = 16;
+
+    /**
+     * Number of seeds of a batch of the random sampling.
+     */
+    public static final int BATCH = 1 << 14;
+
+    /**
+     * Time in milliseconds between the partial images of the random sampling.
+     */
+    public static final long REFRESH = 500;
+
+    /**
+     * Number of seeds between two readings of the clock by a worker of the
+     * random sampling, for the time budget and the partial images.
+     */
+    public static final int CLOCK_INTERVAL = 64;
+
+    /**
+     * Half side of the square (centered in 0) of the seeds of the random sampling.
+     */
+    public static final double SAMPLING_RADIUS = 2;
+
+    /**
+     * Fixed-point weight of a uniform seed in the Metropolis-Hastings sampling.
+     */
+    public static final int METROPOLIS_WEIGHT = 1 << 12;
+
+    /**
+     * Probability of a Metropolis-Hastings mutation to a new uniform seed.
+     */
+    public static final double LARGE_MUTATION = 0.2;
+
+    /**
+     * Minimum radius of the small mutations, relative to the width of the view.
+     */
+    public static final double MUTATION_MIN = 1e-4;
+
+    /**
+     * Maximum radius of the small mutations, relative to the width of the view.
+     */
+    public static final double MUTATION_MAX = 0.1;
+
     /**
      * The CartesianPlane for conversion between CanvasPoint and Complex coordinate.
      */
     private final CartesianPlane plane;
 
     /**
-     * The matrix where save the points.
+     * The histogram where save the points, outside the heap: it is written
+     * without locks by every calculus thread and merged before drawing the
+     * image. It is released at the end of the calculus, so the next render
+     * reuses its memory until releaseMemory() is called.
+     */
+    private Histogram map;
+
+    /**
+     * The maximum number of iterations of every band, ascending (null for one band).
      */
-    private final Map map;
+    private int[] bandLimits = null;
 
     private final int supersampling;
 
+    /**
+     * The relationship between pixel and plane unit (pixel/unit).
+     */
+    private final double scale;
+
+    /**
+     * The x coordinate of the origin on the canvas.
+     */
+    private final double originX;
+
+    /**
+     * The y coordinate of the origin on the canvas.
+     */
+    private final double originY;
+
+    /**
+     * The display surface that receives the images (eventually null).
+     */
+    private RenderSurface surface = null;
+
+    /**
+     * The display surface of the current calculus (null if not used).
+     */
+    private RenderSurface target = null;
+
+    /**
+     * The generation of the current calculus on the display surface.
+     */
+    private long generation = 0;
+
+    /**
+     * True while a partial image is being drawn.
+     */
+    private final AtomicBoolean drawing = new AtomicBoolean(false);
+
+    /**
+     * True for draw the seeds at random instead of a grid on the pixels.
+     */
+    private boolean random = false;
+
+    /**
+     * True for draw the random seeds by Metropolis-Hastings chains.
+     */
+    private boolean metropolis = false;
+
+    /**
+     * The maximum number of seeds of the random sampling (0 for no limit).
+     */
+    private long maxSamples = 0;
+
+    /**
+     * The maximum time in milliseconds of the random sampling (0 for no limit).
+     */
+    private long maxMillis = 0;
+
+    /**
+     * The change of the histogram between two partial images under which
+     * the random sampling is converged (0 for no limit).
+     */
+    private double convergence = 0;
+
+    /**
+     * True when the random sampling must stop at the end of the current batches.
+     */
+    private volatile boolean stopRequested = false;
+
+    /**
+     * The time in milliseconds when the random sampling must stop.
+     */
+    private volatile long deadline = Long.MAX_VALUE;
+
+    /**
+     * The time in milliseconds of the last partial image of the random sampling.
+     */
+    private final AtomicLong lastRefresh = new AtomicLong(0);
+
+    /**
+     * The tone mapping of the image.
+     */
+    private ToneMapper toneMapper = new ToneMapper(ToneMapper.Curve.LINEAR, 1);
+
+    /**
+     * The file of the checkpoints (null for no checkpoints).
+     */
+    private File checkpointFile = null;
+
+    /**
+     * Time in milliseconds between two checkpoints of the random sampling.
+     */
+    private long checkpointMillis = 0;
+
+    /**
+     * True if at least a checkpoint has been loaded.
+     */
+    private boolean loaded = false;
+
+    /**
+     * The number of seeds of the loaded checkpoints.
+     */
+    private long loadedSamples = 0;
+
+    /**
+     * The time in milliseconds of the loaded checkpoints.
+     */
+    private long loadedMillis = 0;
+
+    /**
+     * The states of the chains of the loaded checkpoints (see Checkpoint.getChains()).
+     */
+    private double[] loadedChains = new double[0];
+
+    /**
+     * True for only draw the loaded checkpoints, without calculus.
+     */
+    private boolean redrawOnly = false;
+
+    /**
+     * The RenderScheduler of the loops (null for the default one).
+     */
+    private RenderScheduler scheduler = null;
+
+    /**
+     * True for use the SeedCache of the formula with the grid and the uniform random sampling.
+     */
+    private boolean seedCaching = true;
+
+    /**
+     * The number of seeds replayed from the SeedCache.
+     */
+    private final LongAdder cachedSeeds = new LongAdder();
+
     /**
      * Create a new instance for one fractal calculus.
      *
@@ -50,91 +242,836 @@ public abstract class BuddhabrotBase extends Task<Long> {
     public BuddhabrotBase(CartesianPlane plane, int supersampling) {
         this.plane = plane;
         this.supersampling = supersampling;
+        this.scale = plane.getScale();
+        this.originX = -plane.getUpLeft().getReal() * scale;
+        this.originY = plane.getUpLeft().getImag() * scale;
+
+        map = new Histogram((int) plane.getHeight(), (int) plane.getWidth());
+    }
+
+    /**
+     * Free the memory kept for the histograms of the next renders,
+     * for example when the window of the Buddhabrot is closed.
+     */
+    public static void releaseMemory() {
+        LongStripes.trim();
+    }
+
+    /**
+     * Set the display surface that receives the partial and the final images,
+     * for show the image while it is calculated.
+     * It is used only if it has the size of the view.
+     * The images are drawn straight into its raster and published as dirty,
+     * so only the JavaFX thread copies them into the image shown; without it
+     * only the final image is drawn, in the image of the subclass.
+     *
+     * @param surface the display surface (null for draw only the final image).
+     */
+    public void setSurface(RenderSurface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Set the RenderScheduler that runs the loops of the calculus.
+     *
+     * @param scheduler the scheduler (null for the default one).
+     */
+    public void setScheduler(RenderScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Return the RenderScheduler that runs the loops of the calculus.
+     *
+     * @return the scheduler given by setScheduler() or the default one.
+     */
+    public RenderScheduler getScheduler() {
+        return (scheduler != null) ? scheduler : RenderScheduler.getDefault();
+    }
+
+    /**
+     * Set the tone mapping of the image, to be called before the calculus
+     * (the default is linear up to the maximum value).
+     * The image is then written by rows in parallel (see getLevels()).
+     *
+     * @param toneMapper the tone mapping.
+     */
+    public void setToneMapper(ToneMapper toneMapper) {
+        this.toneMapper = toneMapper;
+    }
+
+    /**
+     * Split the map in bands by length of the orbits, to be called before the calculus.
+     * The orbits must be iterated up to the last limit: every orbit is traced
+     * once and added at the band selected by its length, so the band k is the
+     * Buddhabrot with a maximum number of iterations equal to its limit.
+     *
+     * @param limits the maximum number of iterations of every band, ascending.
+     */
+    protected void setBands(int... limits) {
+        this.bandLimits = limits.clone();
+        map.release();
+        map = new Histogram(map.rows, map.columns, limits.length);
+    }
+
+    /**
+     * Release the histogram of a calculus that will not be started,
+     * the calculus releases it at its end.
+     */
+    public void release() {
+        map.release();
+    }
+
+    /**
+     * Map the histogram from a file, to be called before the calculus:
+     * the counts already in the file are kept and added at the new ones.
+     * The file starts with the size of the histogram, the file of another
+     * histogram is refused.
+     *
+     * @param file the file of the histogram.
+     * @throws IOException if the file can not be mapped or has another size.
+     */
+    public void setHistogramFile(File file) throws IOException {
+        Histogram mapped = new Histogram(map.rows, map.columns, map.bands, file);
+        map.release();
+        map = mapped;
+    }
+
+    /**
+     * Save the calculus in a file every given time during the random sampling
+     * and at the end of the calculus (not if it is cancelled).
+     * A checkpoint that can not be saved is reported in the message of the Task.
+     *
+     * @param file the file of the checkpoints.
+     * @param intervalMillis the time in milliseconds between two checkpoints.
+     */
+    public void setCheckpoint(File file, long intervalMillis) {
+        this.checkpointFile = file;
+        this.checkpointMillis = intervalMillis;
+    }
+
+    /**
+     * Add a checkpoint at the histogram, to be called after the sampling
+     * is set and before the calculus. More checkpoints can be loaded.
+     * The random sampling resumes with their seeds, time and chains counted
+     * in the budgets, the grid is not calculated again.
+     *
+     * @param file the file of the checkpoint.
+     * @throws IOException if the file can not be read.
+     * @throws IllegalArgumentException if the checkpoint has different parameters.
+     */
+    public void loadCheckpoint(File file) throws IOException {
+        if (!getCheckpoint(0, 0, new double[0]).isCompatible(Checkpoint.read(file))) {
+            throw new IllegalArgumentException("The checkpoint has different parameters: " + file);
+        }
+        Checkpoint checkpoint = Checkpoint.read(file, map);
+
+        double[] chains = checkpoint.getChains();
+        double[] allChains = Arrays.copyOf(loadedChains, loadedChains.length + chains.length);
+        System.arraycopy(chains, 0, allChains, loadedChains.length, chains.length);
+        loadedChains = allChains;
+        loadedSamples += checkpoint.getSamples();
+        loadedMillis += checkpoint.getMillis();
+        loaded = true;
+    }
+
+    /**
+     * Only draw the histogram of the loaded checkpoints, without calculus
+     * (for example with a new tone mapping).
+     *
+     * @param redrawOnly true for not calculate.
+     */
+    public void setRedrawOnly(boolean redrawOnly) {
+        this.redrawOnly = redrawOnly;
+    }
+
+    /**
+     * Draw the seeds at random from the whole sampling domain, until one of the
+     * given limits is reached or requestStop() is called.
+     * The seeds are not taken from the pixels but drawn in batches,
+     * independently of the view, and the supersampling is not used.
+     *
+     * @param maxSamples the maximum number of seeds (0 for no limit).
+     * @param maxMillis the maximum time in milliseconds (0 for no limit).
+     * @param convergence the change of the normalized histogram between two
+     * partial images under which the calculus stops (see Histogram.getChange(), 0 for no limit).
+     */
+    public void setRandomSampling(long maxSamples, long maxMillis, double convergence) {
+        this.random = true;
+        this.maxSamples = maxSamples;
+        this.maxMillis = maxMillis;
+        this.convergence = convergence;
+    }
 
-        map = new Map((int) plane.getHeight(), (int) plane.getWidth());
+    /**
+     * Draw the seeds by Metropolis-Hastings chains that prefer the orbits
+     * passing through the view, until one of the given limits is reached
+     * or requestStop() is called (see setRandomSampling()).
+     * A mutation is accepted with probability proportional to the number of
+     * points of its orbit inside the view, the mutations out of the sampling
+     * domain are rejected. Every orbit is added with a weight of
+     * METROPOLIS_WEIGHT times the steps it has been kept, divided by its points
+     * inside the view and rounded at random with the expected value of the
+     * exact weight, so the image is the same as the uniform sampling.
+     *
+     * @param maxSamples the maximum number of steps of the chains (0 for no limit).
+     * @param maxMillis the maximum time in milliseconds (0 for no limit).
+     * @param convergence the change of the normalized histogram between two
+     * partial images under which the calculus stops (0 for no limit).
+     */
+    public void setMetropolisSampling(long maxSamples, long maxMillis, double convergence) {
+        setRandomSampling(maxSamples, maxMillis, convergence);
+        this.metropolis = true;
     }
 
     /**
-     * Function for calculate the fractal.
+     * Set the use of the cache of the escaping seeds of the formula with the
+     * grid and the uniform random sampling (enabled by default). The seeds of
+     * the grid are cached for the same view and supersampling, so a render
+     * with other colors traces only the escaping seeds. The random cache is
+     * not used when a checkpoint is loaded, its seeds could be in the
+     * checkpoint, and it is not replayed when the render is saved in a
+     * checkpoint, that could be merged with another run that replayed the
+     * same seeds.
+     *
+     * @param seedCaching true for use the cache.
+     */
+    public void setSeedCaching(boolean seedCaching) {
+        this.seedCaching = seedCaching;
+    }
+
+    /**
+     * Return the number of seeds replayed from the cache of the escaping seeds.
+     *
+     * @return the number of cached seeds.
+     */
+    public long getCachedSeeds() {
+        return cachedSeeds.sum();
+    }
+
+    /**
+     * Stop the random sampling at the end of the current batches:
+     * unlike cancel(), the image is drawn with the seeds done and the Task succeeds.
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Function for calculate the fractal, the histogram is then released.
      *
      * @return the time taken for the calculus in milliseconds.
      * @throws Exception
      */
     @Override
     protected Long call() throws Exception {
+        map.setScheduler(getScheduler());
+        target = (surface != null) && (surface.getWidth() == map.columns)
+                && (surface.getHeight() == map.rows) ? surface : null;
+        generation = (target != null) ? target.begin() : 0;
+        try {
+            return calculate();
+        }
+        finally {
+            map.release();
+        }
+    }
+
+    /**
+     * Calculate the histogram and draw the image. Nothing is drawn if the
+     * calculus is cancelled: the parallel loops return only when all their
+     * steps are done, so the histogram is not written any more.
+     *
+     * @return the time taken for the calculus in milliseconds.
+     */
+    private long calculate() {
         long startTime = System.currentTimeMillis();
 
-        // Counter for the progress bar
-        final AtomicInteger progress = new AtomicInteger(0);
+        // Only the loaded histogram is drawn, a saved grid is always complete
+        if (redrawOnly || (loaded && !random)) {
+            updateProgress(1, 1);
+            map.merge();
+            drawFinal();
+            return System.currentTimeMillis() - startTime;
+        }
+
+        // Progress in seeds, sampled at a fixed rate
+        final ProgressMeter progress = new ProgressMeter(random ? maxSamples
+                : (long) map.rows * map.columns);
+        progress.add(loadedSamples);
+        ScheduledFuture<?> sampling = progress.sample(meter -> {
+            if (meter.getTotal() > 0) {
+                updateProgress(meter.getDone(), meter.getTotal());
+            }
+            else {
+                updateProgress(-1, 1);
+            }
+        });
+
+        try {
+            if (random) {
+                sampleRandom(progress, startTime - loadedMillis);
+            }
+            else {
+                sampleGrid(progress);
+            }
+        }
+        finally {
+            sampling.cancel(false);
+        }
+        if (isCancelled()) {
+            return System.currentTimeMillis() - startTime;
+        }
+        updateProgress(1, 1);
+
+        map.flush();
+        if (!random) {
+            saveCheckpoint(progress.getDone(), System.currentTimeMillis() - startTime, null);
+        }
+        map.merge();
+        drawFinal();
+
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Take the seeds on a grid on the pixels, with the supersampling,
+     * and publish UPDATES partial images.
+     *
+     * Package-private for the tests, it does not need the JavaFX toolkit.
+     *
+     * @param progress the counter of the pixels done.
+     */
+    void sampleGrid(ProgressMeter progress) {
+        // Counter of the rows for the partial images
+        final AtomicInteger rowsDone = new AtomicInteger(0);
+
+        // The seeds of the grid are the same for the same view and supersampling
+        final SeedCache cache = seedCaching
+                ? SeedCache.getGrid(plane, supersampling, getPower(), getMaxIterations()) : null;
+
+        getScheduler().parallelFor(map.rows, RenderScheduler.Priority.FOREGROUND,
+                (int y) -> {
+            traceRow(y, map.getShard(), cache);
+            if (isCancelled()) {
+                return;
+            }
+            progress.add(map.columns);
+            int done = rowsDone.incrementAndGet();
+            if ((done < map.rows) && (done % Math.max(1, map.rows / UPDATES) == 0)) {
+                publish();
+            }
+        });
+
+        if (!isCancelled()) {
+            map.flush();
+        }
+    }
+
+    /**
+     * Draw the seeds at random in batches of BATCH seeds, publishing a partial
+     * image every REFRESH milliseconds, until a limit is reached.
+     *
+     * Package-private for the tests, it does not need the JavaFX toolkit.
+     *
+     * @param progress the counter of the seeds done.
+     * @param startTime the start time of the calculus (before the loaded checkpoints).
+     */
+    void sampleRandom(ProgressMeter progress, long startTime) {
+        final int batches = getScheduler().getThreads() * 4;
+        final SplittableRandom seeds = new SplittableRandom();
+        long lastRound = startTime;
+        long lastCheckpoint = System.currentTimeMillis();
+        lastRefresh.set(startTime);
+        deadline = (maxMillis > 0) ? startTime + maxMillis : Long.MAX_VALUE;
+
+        // The uniform batches replay first the cached blocks, then draw new blocks;
+        // the checkpoints have only new seeds, so they can be merged
+        final SeedCache cache = (seedCaching && !metropolis && !loaded)
+                ? SeedCache.get(getPower(), getMaxIterations()) : null;
+        final int cachedBlocks = (cache != null) && (checkpointFile == null) ? cache.getBlocks() : 0;
+        int nextBlock = 0;
 
-        // Use a stream for the y loop
-        IntStream yStream = IntStream.range(0, map.rows).parallel();
+        // Every Metropolis-Hastings batch has its own generator and its own chain
+        final SplittableRandom[] generators = new SplittableRandom[batches];
+        final Chain[] chains = new Chain[batches];
+        for (int b = 0; b < batches; b++) {
+            generators[b] = seeds.split();
+            chains[b] = new Chain();
+            if (3 * b + 2 < loadedChains.length) {
+                chains[b].re = loadedChains[3 * b];
+                chains[b].im = loadedChains[3 * b + 1];
+                chains[b].density = (int) loadedChains[3 * b + 2];
+            }
+        }
 
+        while (!isCancelled() && !stopRequested) {
+            // The last batches do not exceed maxSamples
+            long remaining = (maxSamples > 0) ? maxSamples - progress.getDone() : Long.MAX_VALUE;
+            int count = (int) Math.min(batches, (remaining + BATCH - 1) / BATCH);
+            if (count <= 0) {
+                break;
+            }
 
-        //for (int y = 0; y < map.rows; y++) {
-        yStream.forEach((int y) -> {
-            for (int x = 0; x < map.columns; x++) {
-                if (isCancelled()) {
+            final long[] blockSeeds = new long[count];
+            for (int b = 0; b < count; b++) {
+                blockSeeds[b] = seeds.nextLong();
+            }
+            final int firstBlock = nextBlock;
+            nextBlock += count;
+
+            getScheduler().parallelFor(count, RenderScheduler.Priority.FOREGROUND,
+                    (int b) -> {
+                Histogram.Shard shard = map.getShard();
+                int size = (int) Math.min(BATCH, remaining - (long) b * BATCH);
+                if (metropolis) {
+                    progress.add(runChain(chains[b], generators[b], size, shard));
                     return;
                 }
-                List<List<Complex>> multipath = calculatePathSS(plane.toComplex(x, y));
-                multipath.stream().forEach((l) -> {
-                    l.stream().forEach((z) -> {
-                        incrementAtPosition(z);
-                    });
-                });
+                progress.add((firstBlock + b < cachedBlocks)
+                        ? replayBlock(cache, firstBlock + b, size, shard)
+                        : sampleBlock(blockSeeds[b], size, shard, cache));
+            });
+
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                break;
+            }
+            if ((maxMillis > 0) && (maxSamples == 0)) {
+                // Estimate of the seeds done within the time budget
+                progress.setTotal(progress.getDone() * maxMillis / Math.max(1, now - startTime));
+            }
+
+            if (now - lastRound >= REFRESH) {
+                lastRound = now;
+                lastRefresh.set(now);
+                // The workers are idle between the rounds
+                map.flush();
+                if (convergence > 0) {
+                    map.merge();
+                    if (map.getChange() < convergence) {
+                        break;
+                    }
+                }
+                publish();
+            }
+
+            if ((checkpointFile != null) && (now - lastCheckpoint >= checkpointMillis)) {
+                lastCheckpoint = now;
+                map.flush();
+                saveCheckpoint(progress.getDone(), now - startTime, chains);
+            }
+        }
+
+        if (!isCancelled()) {
+            map.flush();
+            saveCheckpoint(progress.getDone(), System.currentTimeMillis() - startTime, chains);
+        }
+    }
+
+    /**
+     * Draw a block of uniform seeds: the escaping ones are traced and, if the
+     * block is complete, saved with their escape counts in a new block of the cache.
+     *
+     * @param seed the seed of the generator of the block.
+     * @param size the number of seeds.
+     * @param shard the shard of the map of the current thread.
+     * @param cache the cache of the formula (eventually null).
+     * @return the number of seeds done, less than size if the calculus is stopped.
+     */
+    private int sampleBlock(long seed, int size, Histogram.Shard shard, SeedCache cache) {
+        SplittableRandom generator = new SplittableRandom(seed);
+        SeedCache.Block block = ((cache != null) && (size == BATCH)) ? new SeedCache.Block(seed, BATCH) : null;
+
+        for (int i = 0; i < size; i++) {
+            if (isStopped(i)) {
+                return i;
+            }
+            double re = generator.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+            double im = generator.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+            int length = iterate(re, im, null, 0);
+            if (block != null) {
+                block.add(length);
             }
+            trace(re, im, length, shard);
+        }
+        if (block != null) {
+            cache.add(block);
+        }
+        return size;
+    }
+
+    /**
+     * Trace the escaping seeds of a cached block, without escape tests:
+     * the band of an orbit is selected by its cached escape count.
+     *
+     * @param cache the cache of the formula.
+     * @param block the block.
+     * @param size the number of seeds.
+     * @param shard the shard of the map of the current thread.
+     * @return the number of seeds done, less than size if the calculus is stopped.
+     */
+    private int replayBlock(SeedCache cache, int block, int size, Histogram.Shard shard) {
+        SeedCache.Block cached = cache.getBlock(block);
+        SplittableRandom generator = new SplittableRandom(cached.getSeed());
+        int escaping = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (isStopped(i)) {
+                cachedSeeds.add(i);
+                return i;
+            }
+            double re = generator.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+            double im = generator.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+            if (cached.isEscaping(i)) {
+                trace(re, im, cached.getLength(escaping++), shard);
+            }
+        }
+        cachedSeeds.add(size);
+        return size;
+    }
+
+    /**
+     * Check if a worker of the random sampling must stop: the calculus is
+     * cancelled, requestStop() is called or the time budget is over.
+     * Every CLOCK_INTERVAL seeds the clock is read and a partial image is
+     * published if the last one is older than REFRESH milliseconds.
+     *
+     * @param seed the number of the seed in its batch.
+     * @return true if the worker must stop.
+     */
+    private boolean isStopped(int seed) {
+        if (isCancelled() || stopRequested) {
+            return true;
+        }
+        if (seed % CLOCK_INTERVAL != 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= deadline) {
+            return true;
+        }
+        long last = lastRefresh.get();
+        if ((now - last >= REFRESH) && lastRefresh.compareAndSet(last, now)) {
+            publish();
+        }
+        return false;
+    }
+
+    /**
+     * Run some steps of a Metropolis-Hastings chain. The target density of a
+     * seed is the number of points of its orbit inside the view and the
+     * mutations are symmetric, so a mutation is accepted with the ratio of
+     * the densities. A small mutation out of the sampling domain has density
+     * 0 and is rejected, the chain stays on its seed for that step.
+     * The orbit of the current seed is added at the map when the chain leaves
+     * it and at the end of the steps.
+     *
+     * @param chain the state of the chain.
+     * @param generator the generator of the chain.
+     * @param steps the number of steps.
+     * @param shard the shard of the map of the current thread.
+     * @return the number of steps done, less than steps if the calculus is stopped.
+     */
+    private int runChain(Chain chain, SplittableRandom generator, int steps, Histogram.Shard shard) {
+        final double width = map.columns / scale;
+        final double minLog = Math.log(MUTATION_MIN * width);
+        final double maxLog = Math.log(MUTATION_MAX * width);
+
+        int i;
+        for (i = 0; i < steps; i++) {
+            if (isStopped(i)) {
+                break;
+            }
+            double re;
+            double im;
+            if ((chain.density == 0) || (generator.nextDouble() < LARGE_MUTATION)) {
+                re = generator.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+                im = generator.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+            }
+            else {
+                double radius = Math.exp(minLog + generator.nextDouble() * (maxLog - minLog));
+                double angle = generator.nextDouble() * 2 * Math.PI;
+                re = chain.re + radius * Math.cos(angle);
+                im = chain.im + radius * Math.sin(angle);
+                if ((Math.abs(re) > SAMPLING_RADIUS) || (Math.abs(im) > SAMPLING_RADIUS)) {
+                    chain.steps++;
+                    continue;
+                }
+            }
+
+            // Only count the points inside the view
+            int density = iterate(re, im, shard, 0);
+            if ((density > 0) && ((chain.density == 0)
+                    || (generator.nextDouble() * chain.density < density))) {
+                flushChain(chain, generator, shard);
+                chain.re = re;
+                chain.im = im;
+                chain.density = density;
+            }
+            chain.steps++;
+        }
+        flushChain(chain, generator, shard);
+        return i;
+    }
+
+    /**
+     * Add the orbit of the current seed of a chain at the map, weighted by
+     * the steps it has been kept divided by its density. The weight is
+     * rounded down or up at random with the probability of its fractional
+     * part, so its expected value is exact also for the dense orbits;
+     * the orbits with weight 0 are not added.
+     *
+     * @param chain the state of the chain.
+     * @param generator the generator of the chain.
+     * @param shard the shard of the map of the current thread.
+     */
+    private void flushChain(Chain chain, SplittableRandom generator, Histogram.Shard shard) {
+        if ((chain.density > 0) && (chain.steps > 0)) {
+            double exact = (double) chain.steps * METROPOLIS_WEIGHT / chain.density;
+            long weight = (long) exact;
+            if (generator.nextDouble() < exact - weight) {
+                weight++;
+            }
+            if (weight > 0) {
+                int length = (map.bands > 1) ? iterate(chain.re, chain.im, null, 0) : 0;
+                shard.setBand(bandOf(length));
+                iterate(chain.re, chain.im, shard, (int) Math.min(Integer.MAX_VALUE, weight));
+            }
+        }
+        chain.steps = 0;
+    }
+
+    /**
+     * Trace the orbits of the samples of the pixels of a row: the escaping
+     * ones are iterated again and added at the map. If the row is in the
+     * cache only its escaping samples are traced, else the complete row
+     * is added at the cache.
+     *
+     * @param y the row.
+     * @param shard the shard of the map of the current thread.
+     * @param cache the cache of the grid (eventually null).
+     */
+    private void traceRow(int y, Histogram.Shard shard, SeedCache cache) {
+        double delta = 1 / scale;
+        double inc = delta / (supersampling + 1);
+
+        SeedCache.Block cached = (cache != null) ? cache.getBlock(y) : null;
+        SeedCache.Block block = ((cache != null) && (cached == null))
+                ? new SeedCache.Block(0, map.columns * (supersampling + 1) * (supersampling + 1)) : null;
+        int seed = 0;
+        int escaping = 0;
+
+        for (int x = 0; x < map.columns; x++) {
             if (isCancelled()) {
                 return;
             }
-            updateProgress(progress.incrementAndGet(), map.rows);
-        });
+            Complex c = plane.toComplex(x, y);
+            double max_re = c.getReal() + delta;
+            double max_im = c.getImag() - delta;
 
-        drawImage();
+            for (double im = c.getImag(); im > max_im; im -= inc) {
+                for (double re = c.getReal(); re < max_re; re += inc) {
+                    int length;
+                    if (cached != null) {
+                        length = cached.isEscaping(seed) ? cached.getLength(escaping++) : -1;
+                    }
+                    else {
+                        length = iterate(re, im, null, 0);
+                        if (block != null) {
+                            block.add(length);
+                        }
+                    }
+                    trace(re, im, length, shard);
+                    seed++;
+                }
+            }
+        }
 
-        return System.currentTimeMillis() - startTime;
+        if (cached != null) {
+            cachedSeeds.add(seed);
+        }
+        else if (block != null) {
+            cache.set(y, block);
+        }
     }
 
-    protected List<List<Complex>> calculatePathSS(Complex c) {
-        List<List<Complex>> multipath = new ArrayList<>();
-        double delta = 1 / plane.getScale();
-        double inc = delta / (supersampling + 1);
+    /**
+     * Add the orbit of a seed at the map, in the band of its length,
+     * if the seed escapes.
+     *
+     * @param re the real part of the seed.
+     * @param im the imaginary part of the seed.
+     * @param length the escape count of the seed (-1 if it does not escape).
+     * @param shard the shard of the map of the current thread.
+     */
+    private void trace(double re, double im, int length, Histogram.Shard shard) {
+        if (length >= 0) {
+            shard.setBand(bandOf(length));
+            iterate(re, im, shard, 1);
+        }
+    }
 
-        double max_re = c.getReal() + delta;
-        double max_im = c.getImag() - delta;
+    /**
+     * Return a checkpoint with the parameters of this calculus.
+     *
+     * @param samples the number of seeds done.
+     * @param millis the time of the calculus in milliseconds.
+     * @param chains the states of the chains (see Checkpoint.getChains()).
+     * @return the checkpoint.
+     */
+    private Checkpoint getCheckpoint(long samples, long millis, double[] chains) {
+        int[] limits = (bandLimits != null) ? bandLimits : new int[] {getMaxIterations()};
+        Checkpoint.Sampling sampling = !random ? Checkpoint.Sampling.GRID
+                : metropolis ? Checkpoint.Sampling.METROPOLIS : Checkpoint.Sampling.RANDOM;
+        return new Checkpoint(plane, getPower(), supersampling, limits, sampling,
+                samples, millis, chains);
+    }
+
+    /**
+     * Save the calculus in the checkpoint file, if it is set, and report
+     * the error in the message of the Task if it can not be saved.
+     * The Shards of the map must be flushed.
+     *
+     * @param samples the number of seeds done.
+     * @param millis the time of the calculus in milliseconds.
+     * @param chains the Metropolis-Hastings chains (eventually null).
+     */
+    private void saveCheckpoint(long samples, long millis, Chain[] chains) {
+        if (checkpointFile == null) {
+            return;
+        }
+        double[] states = new double[(metropolis && (chains != null)) ? 3 * chains.length : 0];
+        for (int b = 0; 3 * b < states.length; b++) {
+            states[3 * b] = chains[b].re;
+            states[3 * b + 1] = chains[b].im;
+            states[3 * b + 2] = chains[b].density;
+        }
+        try {
+            getCheckpoint(samples, millis, states).write(checkpointFile, map);
+            updateMessage("");
+        }
+        catch (IOException exception) {
+            System.err.println(exception.toString());
+            updateMessage("Checkpoint not saved: " + exception.getMessage());
+        }
+    }
 
-        for (double im = c.getImag(); im > max_im; im -= inc) {
-            for (double re = c.getReal(); re < max_re; re += inc) {
-                multipath.add(calculatePath(new Complex(re, im)));
+    /**
+     * Return the band of the orbits of a given length: the first band
+     * with a limit greater or equal to the length.
+     *
+     * @param length the number of iterations of the orbit.
+     * @return the band of the orbit.
+     */
+    private int bandOf(int length) {
+        if (bandLimits == null) {
+            return 0;
+        }
+        for (int b = 0; b < bandLimits.length - 1; b++) {
+            if (length <= bandLimits[b]) {
+                return b;
             }
         }
+        return bandLimits.length - 1;
+    }
 
-        return multipath;
+    /**
+     * Draw the partial image in the display surface and publish it.
+     * Do nothing if there is no display surface, another thread is drawing,
+     * the map is still empty or another calculus uses the surface.
+     */
+    private void publish() {
+        if ((target == null) || !drawing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            map.merge();
+            if ((map.getMax() <= 0) || !target.isCurrent(generation)) {
+                return;
+            }
+            drawPixels(target.getRaster());
+            target.publish(generation, 0, 0, map.columns, map.rows);
+        }
+        finally {
+            drawing.set(false);
+        }
     }
 
     /**
-     * The function used to calculate a point of the fractal.
+     * Draw the final image in the display surface and publish it,
+     * or in the image of the subclass if there is no display surface.
+     */
+    private void drawFinal() {
+        if (target == null) {
+            drawImage();
+        }
+        else if (target.isCurrent(generation)) {
+            drawPixels(target.getRaster());
+            target.publish(generation, 0, 0, map.columns, map.rows);
+        }
+    }
+
+    /**
+     * The function used to calculate the orbit of a point of the fractal.
+     * If the shard is not null, every point of the orbit is passed to
+     * deposit() with the given weight and the points inside the view are
+     * counted. It must not allocate objects.
+     *
+     * @param re the real part of the point.
+     * @param im the imaginary part of the point.
+     * @param shard the shard of the map where add the orbit (null for only test the escape).
+     * @param weight the value added at the map for every point (0 for only count them).
+     * @return -1 if the orbit does not escape, else the number of points inside
+     * the view (the number of iterations if the shard is null).
+     */
+    protected abstract int iterate(double re, double im, Histogram.Shard shard, int weight);
+
+    /**
+     * Return the power of the fractal.
+     *
+     * @return the power.
+     */
+    protected abstract Complex getPower();
+
+    /**
+     * Return the maximum number of iterations of the orbits.
      *
-     * @param c the point to be calculate.
-     * @return a list of points to be added at the map (eventually empty).
+     * @return the maximum number of iterations.
      */
-    protected abstract List<Complex> calculatePath(Complex c);
+    protected abstract int getMaxIterations();
 
+    /**
+     * Draw the final image in the image of the subclass, without display surface.
+     */
     protected abstract void drawImage();
 
     /**
-     * Increment the map at a given location.
+     * Draw the image in an array of ARGB colors, row by row.
+     *
+     * @param pixels the colors of the image, getRows() * getColumns() values.
+     */
+    protected abstract void drawPixels(int[] pixels);
+
+    /**
+     * Add a weight at the map at the position of a point of an orbit,
+     * if it is inside the plane.
      *
-     * @param z the point to add at the map.
+     * @param shard the shard of the map of the current thread.
+     * @param re the real part of the point.
+     * @param im the imaginary part of the point.
+     * @param weight the value to be added (0 for only test the position).
+     * @return 1 if the point is inside the plane, else 0.
      */
-    private synchronized void incrementAtPosition(Complex z) {
-        CanvasPoint p = plane.toCanvasPoint(z);
-        int r = (int)p.getY();
-        int c = (int)p.getX();
+    protected final int deposit(Histogram.Shard shard, double re, double im, int weight) {
+        int r = (int) ((im * -scale) + originY);
+        int c = (int) ((re * scale) + originX);
 
         if (((0 <= r) && (r < map.rows)) && ((0 <= c) && (c < map.columns))) {
-            map.incrementAndGet(r, c);
+            map.add(shard, r, c, weight);
+            return 1;
         }
+        return 0;
     }
 
     /**
@@ -144,14 +1081,66 @@ public abstract class BuddhabrotBase extends Task<Long> {
      * @param c the column.
      * @return the value at (r, c).
      */
-    protected int getValue(int r, int c) {
+    protected long getValue(int r, int c) {
         return map.get(r, c);
     }
 
-    protected int getMax() {
+    protected long getMax() {
         return map.getMax();
     }
 
+    /**
+     * Get the value of a band of the map at a given position.
+     *
+     * @param band the band.
+     * @param r the row.
+     * @param c the column.
+     * @return the value at (r, c) of the band.
+     */
+    protected long getValue(int band, int r, int c) {
+        return map.get(band, r, c);
+    }
+
+    /**
+     * Get the maximum value of a band of the map.
+     *
+     * @param band the band.
+     * @return the maximum value of the band.
+     */
+    protected long getMax(int band) {
+        return map.getMax(band);
+    }
+
+    /**
+     * Get the lookup table of the levels of a band of the map (see ToneMapper).
+     *
+     * @param band the band.
+     * @return the levels by index of the values.
+     */
+    protected float[] getLevels(int band) {
+        return toneMapper.getLevels(map, band);
+    }
+
+    /**
+     * Copy a row of a band of the map.
+     *
+     * @param band the band.
+     * @param r the row.
+     * @param row the array of at least getColumns() values where copy the row.
+     */
+    protected void getRow(int band, int r, long[] row) {
+        map.getRow(band, r, row);
+    }
+
+    /**
+     * Get the number of bands of the map.
+     *
+     * @return the number of bands of the map.
+     */
+    protected int getBands() {
+        return map.bands;
+    }
+
     /**
      * Get the number of rows of the map.
      *
@@ -170,51 +1159,31 @@ public abstract class BuddhabrotBase extends Task<Long> {
         return map.columns;
     }
 
-    private final class Map {
-
-        private final int[][] map;
-
-        final int rows;
-
-        final int columns;
-
-        Map(int rows, int columns) {
-            map = new int[rows][columns];
-            this.rows = rows;
-            this.columns = columns;
-            resetMap();
-        }
+    /**
+     * The state of a Metropolis-Hastings chain.
+     */
+    private static final class Chain {
 
-        void resetMap() {
-            IntStream.range(0, rows).parallel().forEach((int r) -> {
-                for (int c = 0; c < columns; c++) {
-                    synchronized (map) {
-                        map[r][c] = 0;
-                    }
-                }
-            });
-        }
+        /**
+         * The real part of the current seed.
+         */
+        double re = 0;
 
-        synchronized int incrementAndGet(int r, int c) {
-            map[r][c]++;
-            return map[r][c];
-        }
+        /**
+         * The imaginary part of the current seed.
+         */
+        double im = 0;
 
-        int getMax() {
-            AtomicInteger max = new AtomicInteger(-1);
-            IntStream.range(0, rows).parallel().forEach((int r) -> {
-                for (int c = 0; c < columns; c++) {
-                    max.accumulateAndGet(map[r][c], (int a, int b) -> {
-                        return Math.max(a, b);
-                    });
-                }
-            });
-            return max.get();
-        }
+        /**
+         * The number of points of the orbit of the current seed inside the view
+         * (0 before the first seed is found).
+         */
+        int density = 0;
 
-        synchronized int get(int r, int c) {
-            return map[r][c];
-        }
+        /**
+         * The steps since the current seed has been added at the map.
+         */
+        long steps = 0;
 
     }
 
@@ -12,9 +12,9 @@ package deglans.fractalview.buddhabrot;
 
 import deglans.fractalview.utility.CartesianPlane;
 import deglans.fractalview.utility.Complex;
-import java.util.ArrayList;
-import java.util.List;
-import javafx.scene.image.PixelWriter;
+import deglans.fractalview.utility.RenderScheduler;
+import java.util.concurrent.atomic.LongAdder;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
@@ -23,11 +23,28 @@ import javafx.scene.paint.Color;
  * https://en.wikipedia.org/wiki/Buddhabrot
  * https://it.wikipedia.org/wiki/Buddhabrot
  *
- * @version 0.1
+ * The orbits are iterated with primitives, with the usual z^2 + c for power 2
+ * and the complex exponentiation of Complex.pow() for the other powers.
+ *
+ * The escape tests reject the interior seeds early: for power 2 the seeds in
+ * the main cardioid and in the period-2 bulb without iterations, for every
+ * power the seeds whose orbit returns to a saved point (Brent's cycle
+ * detection, the point is saved at every power of 2 iterations).
+ * The rejected seeds and the saved iterations are counted.
+ *
+ * The image is drawn in parallel rows, every value is colored through a
+ * lookup table of the tone mapping and the rows are written at once.
+ *
+ * @version 0.8
  * @author Deglans Dalpasso
  */
 public class BuddhabrotSimple extends BuddhabrotBase {
 
+    /**
+     * Distance under which two points of an orbit are the same.
+     */
+    public static final double CYCLE_EPSILON = 1e-13;
+
     /**
      * Number of iterations.
      */
@@ -41,6 +58,26 @@ public class BuddhabrotSimple extends BuddhabrotBase {
 
     private final WritableImage image;
 
+    /**
+     * Number of seeds tested.
+     */
+    private final LongAdder seeds = new LongAdder();
+
+    /**
+     * Number of seeds rejected in the main cardioid or in the period-2 bulb.
+     */
+    private final LongAdder bulbRejections = new LongAdder();
+
+    /**
+     * Number of seeds rejected by the cycle detection.
+     */
+    private final LongAdder cycleRejections = new LongAdder();
+
+    /**
+     * Number of iterations not done thanks to the rejected seeds.
+     */
+    private final LongAdder savedIterations = new LongAdder();
+
     public BuddhabrotSimple(CartesianPlane plane, WritableImage image,
             int maxIterations, Complex power, int supersampling,
             Color zero, Color max) {
@@ -54,38 +91,174 @@ public class BuddhabrotSimple extends BuddhabrotBase {
         this.image = image;
     }
 
+    @Override
+    protected Complex getPower() {
+        return power;
+    }
+
+    @Override
+    protected int getMaxIterations() {
+        return maxIterations;
+    }
+
     @Override
     protected void drawImage() {
-        double maxMap = getMax();
+        int[] pixels = new int[getRows() * getColumns()];
+        drawPixels(pixels);
+        image.getPixelWriter().setPixels(0, 0, getColumns(), getRows(),
+                PixelFormat.getIntArgbInstance(), pixels, 0, getColumns());
+    }
 
-        PixelWriter pixelWriter = image.getPixelWriter();
+    @Override
+    protected void drawPixels(int[] pixels) {
+        final int band = getBands() - 1;
+        final int rows = getRows();
+        final int columns = getColumns();
+        final int[] colors = ToneMapper.getColors(getLevels(band), zero, max);
 
-        for (int y = 0; y < getRows(); y++) {
-            for (int x = 0; x < getColumns(); x++) {
-                Color c = zero.interpolate(max, (double)getValue(y, x) / maxMap);
-                pixelWriter.setColor(x, y, c);
+        getScheduler().parallelFor(rows, RenderScheduler.Priority.FOREGROUND,
+                (int y) -> {
+            long[] row = new long[columns];
+            getRow(band, y, row);
+            for (int x = 0; x < columns; x++) {
+                pixels[y * columns + x] = ToneMapper.getColor(colors, row[x]);
             }
-        }
+        });
     }
 
+    /**
+     * Iterate the orbit of c through the escape-time algorithm.
+     *
+     * @param re the real part of c.
+     * @param im the imaginary part of c.
+     * @param shard the shard of the map where add the orbit (null for only test the escape).
+     * @param weight the value added at the map for every point (0 for only count them).
+     * @return -1 if the orbit does not escape within maxIterations, else the
+     * number of points inside the view (the number of iterations if the shard is null).
+     */
     @Override
-    protected List<Complex> calculatePath(Complex c) {
-        List<Complex> path = new ArrayList<>();
+    protected int iterate(double re, double im, Histogram.Shard shard, int weight) {
+        final boolean square = (power.getReal() == 2) && (power.getImag() == 0);
+        final double pRe = power.getReal();
+        final double pIm = power.getImag();
+
+        // Only the escape tests reject seeds, the orbits added at the map escape
+        final boolean test = (weight == 0);
+        if (test) {
+            seeds.increment();
+            if (square && isInMainBulbs(re, im)) {
+                bulbRejections.increment();
+                savedIterations.add(maxIterations);
+                return -1;
+            }
+        }
+
         int count = 0;
-        Complex z = new Complex(0, 0);
+        int inside = 0;
+        double zRe = 0;
+        double zIm = 0;
+        double savedRe = 0;
+        double savedIm = 0;
+        int nextSave = 1;
 
-        while ((count < maxIterations) && (z.mod() < 2)) {
-            z = z.pow(power).plus(c);
-            path.add(new Complex(z));
+        while ((count < maxIterations) && (zRe * zRe + zIm * zIm < 4)) {
+            if (square) {
+                double t = zRe * zRe - zIm * zIm + re;
+                zIm = 2 * zRe * zIm + im;
+                zRe = t;
+            }
+            else {
+                // Like Complex.pow(Complex)
+                double mod2 = zRe * zRe + zIm * zIm;
+                double newRe = 0;
+                double newIm = 0;
+                if (mod2 != 0) {
+                    double arg = Math.atan2(zIm, zRe);
+                    double newMod = Math.pow(mod2, pRe / 2) * Math.exp(-pIm * arg);
+                    double newArg = (pRe * arg) + (0.5 * pIm * Math.log(mod2));
+                    newRe = newMod * Math.cos(newArg);
+                    newIm = newMod * Math.sin(newArg);
+                }
+                zRe = newRe + re;
+                zIm = newIm + im;
+            }
             count++;
+            if (shard != null) {
+                inside += deposit(shard, zRe, zIm, weight);
+            }
+
+            if (test) {
+                if (Math.abs(zRe - savedRe) + Math.abs(zIm - savedIm) < CYCLE_EPSILON) {
+                    cycleRejections.increment();
+                    savedIterations.add(maxIterations - count);
+                    return -1;
+                }
+                if (count == nextSave) {
+                    savedRe = zRe;
+                    savedIm = zIm;
+                    nextSave <<= 1;
+                }
+            }
         }
 
-        if (z.mod() < 2) {
-            return new ArrayList<>();
+        if (zRe * zRe + zIm * zIm < 4) {
+            return -1;
         }
-        else {
-            return path;
+        return (shard != null) ? inside : count;
+    }
+
+    /**
+     * Return true if c is in the main cardioid or in the period-2 bulb
+     * of the Mandelbrot set (power 2).
+     *
+     * @param re the real part of c.
+     * @param im the imaginary part of c.
+     * @return true if c is in the main cardioid or in the period-2 bulb.
+     */
+    private static boolean isInMainBulbs(double re, double im) {
+        double x = re - 0.25;
+        double y2 = im * im;
+        double q = x * x + y2;
+        if (q * (q + x) <= 0.25 * y2) {
+            return true;
         }
+        return (re + 1) * (re + 1) + y2 <= 0.0625;
+    }
+
+    /**
+     * Return the number of seeds tested.
+     *
+     * @return the number of seeds tested.
+     */
+    public long getSeeds() {
+        return seeds.sum();
+    }
+
+    /**
+     * Return the number of seeds rejected in the main cardioid or in the period-2 bulb.
+     *
+     * @return the number of seeds rejected without iterations.
+     */
+    public long getBulbRejections() {
+        return bulbRejections.sum();
+    }
+
+    /**
+     * Return the number of seeds rejected by the cycle detection.
+     *
+     * @return the number of seeds rejected by the cycle detection.
+     */
+    public long getCycleRejections() {
+        return cycleRejections.sum();
+    }
+
+    /**
+     * Return the number of iterations not done thanks to the rejected seeds.
+     *
+     * @return the number of iterations saved.
+     */
+    public long getSavedIterations() {
+        return savedIterations.sum();
     }
 
 }
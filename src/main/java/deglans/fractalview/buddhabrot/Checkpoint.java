@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A saved state of a Buddhabrot calculus: the parameters of the render,
+ * the state of the sampler and the counts of the histogram, in a compressed
+ * binary file. The header (see read()) is enough to create the same render,
+ * the counts are then added at its histogram (see BuddhabrotBase.loadCheckpoint()),
+ * so the checkpoints of more runs with the same parameters are merged.
+ *
+ * The file is a GZIP stream of: MAGIC, VERSION, the parameters, the sampler
+ * state and the raw counts of every band as variable-length numbers.
+ * It is written in a temporary file and then renamed, atomically if the file
+ * system allows it, so a crash during the writing does not lose the previous
+ * checkpoint.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public final class Checkpoint {
+
+    /**
+     * The first int of a checkpoint file.
+     */
+    public static final int MAGIC = 0x42554444;
+
+    /**
+     * The version of the file format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Tolerance of the comparison of the planes, relative to the size of a pixel.
+     */
+    private static final double PLANE_TOLERANCE = 1e-6;
+
+    /**
+     * The sampling of the seeds.
+     */
+    public enum Sampling {
+
+        /**
+         * A grid on the pixels, with the supersampling.
+         */
+        GRID,
+        /**
+         * Uniform random seeds.
+         */
+        RANDOM,
+        /**
+         * Metropolis-Hastings chains.
+         */
+        METROPOLIS
+    }
+
+    /**
+     * The view of the render.
+     */
+    private final CartesianPlane plane;
+
+    /**
+     * The power of the fractal.
+     */
+    private final Complex power;
+
+    /**
+     * The number of samples per side of a pixel.
+     */
+    private final int supersampling;
+
+    /**
+     * The maximum number of iterations of every band, ascending.
+     */
+    private final int[] bandLimits;
+
+    /**
+     * The sampling of the seeds.
+     */
+    private final Sampling sampling;
+
+    /**
+     * The number of seeds done.
+     */
+    private final long samples;
+
+    /**
+     * The time of the calculus in milliseconds.
+     */
+    private final long millis;
+
+    /**
+     * The states of the Metropolis-Hastings chains, 3 values (real part,
+     * imaginary part and density of the seed) for every chain.
+     */
+    private final double[] chains;
+
+    /**
+     * Create a new checkpoint.
+     *
+     * @param plane the view of the render.
+     * @param power the power of the fractal.
+     * @param supersampling the number of samples per side of a pixel.
+     * @param bandLimits the maximum number of iterations of every band, ascending.
+     * @param sampling the sampling of the seeds.
+     * @param samples the number of seeds done.
+     * @param millis the time of the calculus in milliseconds.
+     * @param chains the states of the Metropolis-Hastings chains (3 values for every chain).
+     */
+    Checkpoint(CartesianPlane plane, Complex power, int supersampling, int[] bandLimits,
+            Sampling sampling, long samples, long millis, double[] chains) {
+        this.plane = plane;
+        this.power = power;
+        this.supersampling = supersampling;
+        this.bandLimits = bandLimits.clone();
+        this.sampling = sampling;
+        this.samples = samples;
+        this.millis = millis;
+        this.chains = chains.clone();
+    }
+
+    /**
+     * Read the header of a checkpoint file.
+     *
+     * @param file the file.
+     * @return the checkpoint of the file.
+     * @throws IOException if the file can not be read or is not a checkpoint.
+     */
+    public static Checkpoint read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Read a checkpoint file and add its counts at a histogram.
+     *
+     * @param file the file.
+     * @param map the histogram with the size and the bands of the file (null for read only the header).
+     * @return the checkpoint of the file.
+     * @throws IOException if the file can not be read or is not a checkpoint.
+     */
+    static Checkpoint read(File file, Histogram map) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new IOException("Not a Buddhabrot checkpoint: " + file);
+            }
+            double width = in.readInt();
+            double height = in.readInt();
+            Complex upLeft = new Complex(in.readDouble(), in.readDouble());
+            Complex downRight = new Complex(in.readDouble(), in.readDouble());
+            Complex power = new Complex(in.readDouble(), in.readDouble());
+            int supersampling = in.readInt();
+            int[] bandLimits = new int[in.readInt()];
+            for (int b = 0; b < bandLimits.length; b++) {
+                bandLimits[b] = in.readInt();
+            }
+            int mode = in.readByte();
+            if ((mode < 0) || (mode >= Sampling.values().length)) {
+                throw new IOException("Unknown sampling in the checkpoint: " + mode);
+            }
+            Sampling sampling = Sampling.values()[mode];
+            long samples = in.readLong();
+            long millis = in.readLong();
+            double[] chains = new double[3 * in.readInt()];
+            for (int i = 0; i < chains.length; i++) {
+                chains[i] = in.readDouble();
+            }
+
+            Checkpoint checkpoint = new Checkpoint(new CartesianPlane(width, height, upLeft, downRight),
+                    power, supersampling, bandLimits, sampling, samples, millis, chains);
+            if (map != null) {
+                if ((map.rows != (int) height) || (map.columns != (int) width)
+                        || (map.bands != bandLimits.length)) {
+                    throw new IOException("The histogram of the checkpoint has a different size.");
+                }
+                map.read(in);
+            }
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Write this checkpoint with the counts of a histogram, that must be flushed.
+     *
+     * @param file the file.
+     * @param map the histogram.
+     * @throws IOException if the file can not be written.
+     */
+    void write(File file, Histogram map) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(temporary))))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt((int) plane.getWidth());
+            out.writeInt((int) plane.getHeight());
+            out.writeDouble(plane.getUpLeft().getReal());
+            out.writeDouble(plane.getUpLeft().getImag());
+            out.writeDouble(plane.getDownRight().getReal());
+            out.writeDouble(plane.getDownRight().getImag());
+            out.writeDouble(power.getReal());
+            out.writeDouble(power.getImag());
+            out.writeInt(supersampling);
+            out.writeInt(bandLimits.length);
+            for (int limit : bandLimits) {
+                out.writeInt(limit);
+            }
+            out.writeByte(sampling.ordinal());
+            out.writeLong(samples);
+            out.writeLong(millis);
+            out.writeInt(chains.length / 3);
+            for (double value : chains) {
+                out.writeDouble(value);
+            }
+            map.write(out);
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException exception) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Return true if the counts of another checkpoint can be added at the
+     * counts of this: the same view, fractal, bands and sampling.
+     *
+     * @param other the other checkpoint.
+     * @return true if the parameters are the same.
+     */
+    public boolean isCompatible(Checkpoint other) {
+        double delta = PLANE_TOLERANCE / plane.getScale();
+        return (plane.getWidth() == other.plane.getWidth())
+                && (plane.getHeight() == other.plane.getHeight())
+                && plane.getUpLeft().equals(other.plane.getUpLeft(), delta)
+                && plane.getDownRight().equals(other.plane.getDownRight(), delta)
+                && (power.getReal() == other.power.getReal())
+                && (power.getImag() == other.power.getImag())
+                && (supersampling == other.supersampling)
+                && Arrays.equals(bandLimits, other.bandLimits)
+                && (sampling == other.sampling);
+    }
+
+    /**
+     * Return the view of the render.
+     *
+     * @return the CartesianPlane of the render.
+     */
+    public CartesianPlane getPlane() {
+        return plane;
+    }
+
+    /**
+     * Return the power of the fractal.
+     *
+     * @return the power.
+     */
+    public Complex getPower() {
+        return power;
+    }
+
+    /**
+     * Return the number of samples per side of a pixel.
+     *
+     * @return the supersampling.
+     */
+    public int getSupersampling() {
+        return supersampling;
+    }
+
+    /**
+     * Return the maximum number of iterations of every band, ascending.
+     *
+     * @return the limits of the bands.
+     */
+    public int[] getBandLimits() {
+        return bandLimits.clone();
+    }
+
+    /**
+     * Return the maximum number of iterations (the limit of the last band).
+     *
+     * @return the maximum number of iterations.
+     */
+    public int getMaxIterations() {
+        return bandLimits[bandLimits.length - 1];
+    }
+
+    /**
+     * Return the sampling of the seeds.
+     *
+     * @return the sampling.
+     */
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Return the number of seeds done.
+     *
+     * @return the number of seeds.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Return the time of the calculus in milliseconds.
+     *
+     * @return the time of the calculus.
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Return the states of the Metropolis-Hastings chains, 3 values (real
+     * part, imaginary part and density of the seed) for every chain.
+     *
+     * @return the states of the chains.
+     */
+    double[] getChains() {
+        return chains.clone();
+    }
+
+}
@@ -0,0 +1,698 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.RenderScheduler;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of the orbit points of a Buddhabrot, with long counts outside
+ * the heap (see LongStripes), eventually mapped from a file, so it can be as
+ * large as a poster and it does not overflow. The memory is given back for
+ * the next histograms by release().
+ * A histogram file starts with a header of FILE_HEADER bytes: FILE_MAGIC,
+ * FILE_VERSION, the rows, the columns and the bands (big-endian ints),
+ * followed by the counts (little-endian longs).
+ *
+ * Every calculus thread writes the points in its own Shard (see getShard())
+ * without locks; when the Shard is full its points are sorted by lock stripe
+ * and added at the counts, locking every stripe once. The Shards are flushed
+ * by flush() when the calculus threads are done. The maximum and the
+ * percentiles of the values are calculated in parallel by merge(), the ranks
+ * of the values (see getRank()) are used by the tone mapping.
+ * The counts can be saved and added from a stream (see write() and read()).
+ * The convergence of a random sampling can be measured with getChange().
+ *
+ * The histogram can have more bands (for the Nebulabrot): every orbit is added
+ * only at one band (see Shard.setBand()) and the values are accumulated when
+ * read, so the band k contains the orbits of the bands from 0 to k and the
+ * last band contains all the orbits.
+ *
+ * @version 0.10
+ * @author Deglans Dalpasso
+ */
+final class Histogram {
+
+    /**
+     * Number of points of a Shard.
+     */
+    static final int SHARD_SIZE = 1 << 14;
+
+    /**
+     * Maximum number of lock stripes.
+     */
+    static final int LOCKS = 256;
+
+    /**
+     * The first int of a histogram file.
+     */
+    static final int FILE_MAGIC = 0x42554448;
+
+    /**
+     * The version of the format of the histogram files.
+     */
+    static final int FILE_VERSION = 1;
+
+    /**
+     * Size in bytes of the header of a histogram file.
+     */
+    static final int FILE_HEADER = 32;
+
+    /**
+     * Number of sub-buckets for every power of 2 in the percentile buckets.
+     */
+    static final int SUB_BUCKETS = 8;
+
+    /**
+     * Number of percentile buckets.
+     */
+    static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    /**
+     * The number of rows.
+     */
+    final int rows;
+
+    /**
+     * The number of columns.
+     */
+    final int columns;
+
+    /**
+     * The number of bands.
+     */
+    final int bands;
+
+    /**
+     * The number of pixels of a band.
+     */
+    private final long pixels;
+
+    /**
+     * The counts of the orbit points, band after band (not accumulated).
+     */
+    private final LongStripes counts;
+
+    /**
+     * Base 2 logarithm of the number of values of a lock stripe.
+     */
+    private final int lockShift;
+
+    /**
+     * The locks of the stripes of the counts.
+     */
+    private final Object[] locks;
+
+    /**
+     * The Shards by calculus thread.
+     */
+    private final ConcurrentHashMap<Thread, Shard> shards = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum value of every band at the last merge (-1 before the first merge).
+     */
+    private final long[] max;
+
+    /**
+     * The number of non-zero pixels of every band before every percentile
+     * bucket at the last merge (the last element is the total).
+     */
+    private final long[][] cumulative;
+
+    /**
+     * The sum of all the values of the last band at the last merge.
+     */
+    private volatile long total = 0;
+
+    /**
+     * The RenderScheduler of the parallel loops (null for the default one).
+     */
+    private RenderScheduler scheduler = null;
+
+    /**
+     * The last band at the last call of getChange() (eventually null).
+     */
+    private LongStripes reference = null;
+
+    /**
+     * The sum of all the values of reference.
+     */
+    private long referenceTotal = 0;
+
+    /**
+     * Create an empty Histogram with one band.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     */
+    Histogram(int rows, int columns) {
+        this(rows, columns, 1);
+    }
+
+    /**
+     * Create an empty Histogram outside the heap.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param bands the number of bands.
+     */
+    Histogram(int rows, int columns, int bands) {
+        this(rows, columns, bands, new LongStripes((long) bands * rows * columns));
+    }
+
+    /**
+     * Create a Histogram mapped from a file: the counts already in the file are kept.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param bands the number of bands.
+     * @param file the file of the counts.
+     * @throws IOException if the file can not be mapped or has another size.
+     */
+    Histogram(int rows, int columns, int bands, File file) throws IOException {
+        this(rows, columns, bands, map(rows, columns, bands, file));
+    }
+
+    /**
+     * Create a Histogram with the given counts.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param bands the number of bands.
+     * @param counts the counts, band after band.
+     */
+    private Histogram(int rows, int columns, int bands, LongStripes counts) {
+        this.rows = rows;
+        this.columns = columns;
+        this.bands = bands;
+        this.pixels = (long) rows * columns;
+        this.counts = counts;
+
+        // The smallest power of 2 that gives at most LOCKS stripes
+        int shift = 0;
+        while (((counts.length - 1) >>> shift) >= LOCKS) {
+            shift++;
+        }
+        lockShift = shift;
+        locks = new Object[(int) ((counts.length - 1) >>> shift) + 1];
+        for (int l = 0; l < locks.length; l++) {
+            locks[l] = new Object();
+        }
+
+        max = new long[bands];
+        cumulative = new long[bands][BUCKETS + 1];
+        for (int b = 0; b < bands; b++) {
+            max[b] = -1;
+        }
+    }
+
+    /**
+     * Return the Shard of the current thread, to be used with add()
+     * only by this thread. Call it once for a block of work, not for every point.
+     *
+     * @return the Shard of the current thread.
+     */
+    Shard getShard() {
+        return shards.computeIfAbsent(Thread.currentThread(), (Thread t) -> {
+            return new Shard();
+        });
+    }
+
+    /**
+     * Add a weight at the value at a given position of the band of a Shard.
+     *
+     * @param shard the Shard of the current thread (see getShard()).
+     * @param r the row.
+     * @param c the column.
+     * @param weight the value to be added.
+     */
+    void add(Shard shard, int r, int c, int weight) {
+        if (weight != 0) {
+            shard.add(shard.offset + (long) r * columns + c, weight);
+        }
+    }
+
+    /**
+     * Add the points of all the Shards at the counts.
+     * It must be called only when the calculus threads do not write.
+     */
+    void flush() {
+        for (Shard shard : shards.values()) {
+            shard.flush();
+        }
+    }
+
+    /**
+     * Add the points of the Shard of the current thread at the counts,
+     * calculate in parallel the maximum values and the percentiles of
+     * every band. It can be called while the other Shards are written:
+     * the result is then a partial count.
+     */
+    synchronized void merge() {
+        Shard own = shards.get(Thread.currentThread());
+        if (own != null) {
+            own.flush();
+        }
+
+        AtomicLongArray newMax = new AtomicLongArray(bands);
+        AtomicLongArray newBuckets = new AtomicLongArray(bands * BUCKETS);
+        LongAdder newTotal = new LongAdder();
+        getScheduler().parallelFor(rows, RenderScheduler.Priority.FOREGROUND,
+                (int r) -> {
+            long[] rowMax = new long[bands];
+            int[] rowBuckets = new int[bands * BUCKETS];
+            long rowTotal = 0;
+            for (long i = (long) r * columns; i < (long) (r + 1) * columns; i++) {
+                long sum = 0;
+                for (int b = 0; b < bands; b++) {
+                    sum += counts.get(b * pixels + i);
+                    rowMax[b] = Math.max(rowMax[b], sum);
+                    if (sum > 0) {
+                        rowBuckets[b * BUCKETS + getBucket(sum)]++;
+                    }
+                }
+                rowTotal += sum;
+            }
+            for (int b = 0; b < bands; b++) {
+                newMax.accumulateAndGet(b, rowMax[b], Math::max);
+            }
+            for (int k = 0; k < rowBuckets.length; k++) {
+                if (rowBuckets[k] > 0) {
+                    newBuckets.addAndGet(k, rowBuckets[k]);
+                }
+            }
+            newTotal.add(rowTotal);
+        });
+        for (int b = 0; b < bands; b++) {
+            max[b] = newMax.get(b);
+            for (int k = 0; k < BUCKETS; k++) {
+                cumulative[b][k + 1] = cumulative[b][k] + newBuckets.get(b * BUCKETS + k);
+            }
+        }
+        total = newTotal.sum();
+    }
+
+    /**
+     * Return the percentile bucket of a positive value: the bit length
+     * and the next bits of the value.
+     *
+     * @param value the value.
+     * @return the bucket of the value.
+     */
+    static int getBucket(long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        int sub = (bits > 3) ? (int) (value >>> (bits - 4)) & (SUB_BUCKETS - 1)
+                : (int) (value << (4 - bits)) & (SUB_BUCKETS - 1);
+        return (bits - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Return the smallest value of a percentile bucket.
+     *
+     * @param bucket the bucket.
+     * @return the smallest value of the bucket.
+     */
+    static long getBucketValue(int bucket) {
+        int bits = bucket / SUB_BUCKETS + 1;
+        long value = (SUB_BUCKETS | (bucket % SUB_BUCKETS));
+        return (bits > 3) ? value << (bits - 4) : value >>> (4 - bits);
+    }
+
+    /**
+     * Return an approximation (within 1/SUB_BUCKETS) of a percentile of the
+     * non-zero values of a band at the last merge.
+     *
+     * @param band the band.
+     * @param fraction the fraction of the values (for example 0.99).
+     * @return the smallest value greater or equal to the fraction of the non-zero values.
+     */
+    synchronized long getPercentile(int band, double fraction) {
+        long needed = (long) Math.ceil(fraction * cumulative[band][BUCKETS]);
+        for (int k = 0; k < BUCKETS; k++) {
+            long seen = cumulative[band][k + 1];
+            if ((seen >= needed) && (seen > 0)) {
+                return getBucketValue(k);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return an approximation of the fraction of the non-zero values of a band
+     * smaller or equal to a value at the last merge: the values are supposed
+     * uniform inside their percentile bucket.
+     *
+     * @param band the band.
+     * @param value the value.
+     * @return the rank of the value, between 0 and 1.
+     */
+    synchronized double getRank(int band, long value) {
+        long count = cumulative[band][BUCKETS];
+        if ((value <= 0) || (count == 0)) {
+            return 0;
+        }
+        int k = getBucket(value);
+        long low = getBucketValue(k);
+        long high = (k + 1 < BUCKETS) ? getBucketValue(k + 1) : Long.MAX_VALUE;
+        double inside = Math.min(1, (double) (value + 1 - low) / Math.max(1, high - low));
+        long bucket = cumulative[band][k + 1] - cumulative[band][k];
+        return (cumulative[band][k] + bucket * inside) / count;
+    }
+
+    /**
+     * Return the distance between the last band at the last merge and at
+     * the previous call of this method, both normalized to a total of 1,
+     * and keep the current band as reference for the next call.
+     *
+     * @return the L1 distance (between 0 and 2, 2 for the first call).
+     */
+    synchronized double getChange() {
+        final boolean first = (reference == null) || (referenceTotal <= 0) || (total <= 0);
+        final long lastTotal = referenceTotal;
+        final long currentTotal = total;
+        if (reference == null) {
+            reference = new LongStripes(pixels);
+        }
+        final LongStripes last = reference;
+
+        // Every value is compared and then replaced by the current one
+        DoubleAdder change = new DoubleAdder();
+        getScheduler().parallelFor(rows, RenderScheduler.Priority.FOREGROUND,
+                (int r) -> {
+            double rowChange = 0;
+            for (int c = 0; c < columns; c++) {
+                long i = (long) r * columns + c;
+                long current = get(bands - 1, r, c);
+                if (!first) {
+                    rowChange += Math.abs((double) current / currentTotal - (double) last.get(i) / lastTotal);
+                }
+                last.set(i, current);
+            }
+            change.add(rowChange);
+        });
+        referenceTotal = currentTotal;
+
+        return first ? 2 : change.sum();
+    }
+
+    /**
+     * Set the RenderScheduler of the parallel loops of merge() and getChange().
+     *
+     * @param scheduler the scheduler (null for the default one).
+     */
+    void setScheduler(RenderScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Return the RenderScheduler of the parallel loops.
+     *
+     * @return the scheduler.
+     */
+    private RenderScheduler getScheduler() {
+        return (scheduler != null) ? scheduler : RenderScheduler.getDefault();
+    }
+
+    /**
+     * Give back the memory of the counts for the next histograms (see
+     * LongStripes.release()), the Histogram can not be used any more.
+     */
+    synchronized void release() {
+        counts.release();
+        if (reference != null) {
+            reference.release();
+            reference = null;
+        }
+    }
+
+    /**
+     * Map the counts of a histogram from a file, writing the header of a new
+     * (empty) file or checking the header of an existing one.
+     *
+     * @param rows the number of rows.
+     * @param columns the number of columns.
+     * @param bands the number of bands.
+     * @param file the file of the counts.
+     * @return the counts mapped from the file.
+     * @throws IOException if the file can not be mapped or has another size.
+     */
+    private static LongStripes map(int rows, int columns, int bands, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() == 0) {
+                raf.writeInt(FILE_MAGIC);
+                raf.writeInt(FILE_VERSION);
+                raf.writeInt(rows);
+                raf.writeInt(columns);
+                raf.writeInt(bands);
+                raf.setLength(FILE_HEADER);
+            }
+            else {
+                if ((raf.length() < FILE_HEADER) || (raf.readInt() != FILE_MAGIC)
+                        || (raf.readInt() != FILE_VERSION)) {
+                    throw new IOException("Not a Buddhabrot histogram: " + file);
+                }
+                if ((raf.readInt() != rows) || (raf.readInt() != columns) || (raf.readInt() != bands)) {
+                    throw new IOException("The histogram of the file has a different size: " + file);
+                }
+            }
+        }
+        return new LongStripes((long) bands * rows * columns, file, FILE_HEADER);
+    }
+
+    /**
+     * Return the value of the last band at a given position.
+     *
+     * @param r the row.
+     * @param c the column.
+     * @return the value at (r, c).
+     */
+    long get(int r, int c) {
+        return get(bands - 1, r, c);
+    }
+
+    /**
+     * Return the value of a band at a given position.
+     *
+     * @param band the band.
+     * @param r the row.
+     * @param c the column.
+     * @return the value at (r, c) of the band.
+     */
+    long get(int band, int r, int c) {
+        long i = (long) r * columns + c;
+        long sum = 0;
+        for (int b = 0; b <= band; b++) {
+            sum += counts.get(b * pixels + i);
+        }
+        return sum;
+    }
+
+    /**
+     * Copy a row of a band, faster than get() for every column.
+     *
+     * @param band the band.
+     * @param r the row.
+     * @param row the array of at least columns values where copy the row.
+     */
+    void getRow(int band, int r, long[] row) {
+        long first = (long) r * columns;
+        for (int c = 0; c < columns; c++) {
+            row[c] = counts.get(first + c);
+        }
+        for (int b = 1; b <= band; b++) {
+            long offset = b * pixels + first;
+            for (int c = 0; c < columns; c++) {
+                row[c] += counts.get(offset + c);
+            }
+        }
+    }
+
+    /**
+     * Write the counts of all the bands (not accumulated) as variable-length
+     * numbers: 7 bits for every byte, the high bit set if more bytes follow.
+     * The Shards must be flushed.
+     *
+     * @param out the stream.
+     * @throws IOException if the stream can not be written.
+     */
+    void write(DataOutput out) throws IOException {
+        for (long i = 0; i < counts.length; i++) {
+            long value = counts.get(i);
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    /**
+     * Add at the counts of all the bands the counts read from a stream
+     * (see write()).
+     *
+     * @param in the stream.
+     * @throws IOException if the stream can not be read.
+     */
+    void read(DataInput in) throws IOException {
+        for (long i = 0; i < counts.length; i++) {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (value != 0) {
+                counts.add(i, value);
+            }
+        }
+    }
+
+    /**
+     * Return the sum of all the values of the last band at the last merge.
+     *
+     * @return the sum of all the values.
+     */
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * Return the maximum value of the last band at the last merge.
+     *
+     * @return the maximum value (-1 before the first merge).
+     */
+    synchronized long getMax() {
+        return max[bands - 1];
+    }
+
+    /**
+     * Return the maximum value of a band at the last merge.
+     *
+     * @param band the band.
+     * @return the maximum value of the band (-1 before the first merge).
+     */
+    synchronized long getMax(int band) {
+        return max[band];
+    }
+
+    /**
+     * The points written by a calculus thread and not yet added at the counts.
+     */
+    final class Shard {
+
+        /**
+         * The indexes of the points in the counts.
+         */
+        private final long[] indexes = new long[SHARD_SIZE];
+
+        /**
+         * The weights of the points.
+         */
+        private final int[] weights = new int[SHARD_SIZE];
+
+        /**
+         * The points sorted by lock stripe during a flush.
+         */
+        private final int[] order = new int[SHARD_SIZE];
+
+        /**
+         * The first sorted point of every lock stripe during a flush.
+         */
+        private final int[] starts = new int[locks.length + 1];
+
+        /**
+         * The next sorted point of every lock stripe during a flush.
+         */
+        private final int[] next = new int[locks.length + 1];
+
+        /**
+         * The number of points.
+         */
+        private int size = 0;
+
+        /**
+         * The index of the band of the next points.
+         */
+        private long offset = 0;
+
+        /**
+         * Select the band of the next points.
+         *
+         * @param band the band.
+         */
+        void setBand(int band) {
+            offset = band * pixels;
+        }
+
+        /**
+         * Add a point, and flush the Shard if it is full.
+         *
+         * @param index the index of the point in the counts.
+         * @param weight the weight of the point.
+         */
+        private void add(long index, int weight) {
+            indexes[size] = index;
+            weights[size] = weight;
+            size++;
+            if (size == SHARD_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Sort the points by lock stripe and add them at the counts,
+         * locking every stripe once.
+         */
+        private void flush() {
+            if (size == 0) {
+                return;
+            }
+
+            // Counting sort by lock stripe
+            Arrays.fill(starts, 0);
+            for (int i = 0; i < size; i++) {
+                starts[(int) (indexes[i] >>> lockShift) + 1]++;
+            }
+            for (int l = 0; l < locks.length; l++) {
+                starts[l + 1] += starts[l];
+            }
+            System.arraycopy(starts, 0, next, 0, starts.length);
+            for (int i = 0; i < size; i++) {
+                order[next[(int) (indexes[i] >>> lockShift)]++] = i;
+            }
+
+            for (int l = 0; l < locks.length; l++) {
+                if (starts[l] == starts[l + 1]) {
+                    continue;
+                }
+                synchronized (locks[l]) {
+                    for (int k = starts[l]; k < starts[l + 1]; k++) {
+                        counts.add(indexes[order[k]], weights[order[k]]);
+                    }
+                }
+            }
+            size = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * An array of long values outside the heap, in stripes of direct buffers
+ * or mapped from a file, so it can be larger than a Java array and it does
+ * not load the garbage collector. The direct buffers are limited by the
+ * option -XX:MaxDirectMemorySize of the JVM.
+ * It is not synchronized.
+ *
+ * The direct memory is freed only when the garbage collector finds the
+ * buffers, so the full stripes of an array that is no more used are given
+ * back by release() and reused, cleared, by the next arrays. The pool keeps
+ * at most the full stripes of the array released, the others are left to
+ * the garbage collector, and trim() empties it when no more arrays are
+ * expected.
+ *
+ * @version 0.3
+ * @author Deglans Dalpasso
+ */
+final class LongStripes {
+
+    /**
+     * Base 2 logarithm of the number of values of a stripe.
+     */
+    static final int STRIPE_SHIFT = 24;
+
+    /**
+     * Mask of the position of a value in its stripe.
+     */
+    private static final long STRIPE_MASK = (1L << STRIPE_SHIFT) - 1;
+
+    /**
+     * A stripe of zeros, for clear the reused stripes.
+     */
+    private static final long[] ZEROS = new long[1 << 12];
+
+    /**
+     * The released full stripes, reused by the next arrays.
+     */
+    private static final ArrayDeque<LongBuffer> POOL = new ArrayDeque<>();
+
+    /**
+     * The number of values.
+     */
+    final long length;
+
+    /**
+     * The stripes.
+     */
+    private final LongBuffer[] stripes;
+
+    /**
+     * True if the stripes are mapped from a file.
+     */
+    private final boolean mapped;
+
+    /**
+     * Create an array of zeros in direct buffers, reusing the released stripes.
+     *
+     * @param length the number of values.
+     */
+    LongStripes(long length) {
+        this.length = length;
+        this.mapped = false;
+        stripes = new LongBuffer[(int) ((length + STRIPE_MASK) >>> STRIPE_SHIFT)];
+        for (int s = 0; s < stripes.length; s++) {
+            LongBuffer stripe = null;
+            if (getStripeBytes(s) == (Long.BYTES << STRIPE_SHIFT)) {
+                synchronized (POOL) {
+                    stripe = POOL.poll();
+                }
+            }
+            if (stripe != null) {
+                clear(stripe);
+            }
+            else {
+                stripe = ByteBuffer.allocateDirect(getStripeBytes(s))
+                        .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+            stripes[s] = stripe;
+        }
+    }
+
+    /**
+     * Create an array mapped from a file, that is created or extended with
+     * zeros if needed. The values already in the file are kept.
+     *
+     * @param length the number of values.
+     * @param file the file where the values are saved.
+     * @param offset the position in bytes of the first value in the file.
+     * @throws IOException if the file can not be mapped.
+     */
+    LongStripes(long length, File file, long offset) throws IOException {
+        this.length = length;
+        this.mapped = true;
+        stripes = new LongBuffer[(int) ((length + STRIPE_MASK) >>> STRIPE_SHIFT)];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel channel = raf.getChannel()) {
+            for (int s = 0; s < stripes.length; s++) {
+                stripes[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        offset + ((long) s << STRIPE_SHIFT) * Long.BYTES, getStripeBytes(s))
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            }
+        }
+    }
+
+    /**
+     * Give back the full stripes for the next arrays, up to the number of
+     * full stripes of this array; the array can not be used any more.
+     * The mapped stripes are only dropped.
+     */
+    void release() {
+        if (!mapped) {
+            int limit = (int) (length >>> STRIPE_SHIFT);
+            synchronized (POOL) {
+                for (LongBuffer stripe : stripes) {
+                    if ((stripe != null) && (stripe.capacity() == (1 << STRIPE_SHIFT))
+                            && (POOL.size() < limit)) {
+                        POOL.push(stripe);
+                    }
+                }
+            }
+        }
+        Arrays.fill(stripes, null);
+    }
+
+    /**
+     * Drop the released stripes, so the garbage collector can free
+     * their direct memory.
+     */
+    static void trim() {
+        synchronized (POOL) {
+            POOL.clear();
+        }
+    }
+
+    /**
+     * Set all the values of a stripe at 0.
+     *
+     * @param stripe the stripe.
+     */
+    private static void clear(LongBuffer stripe) {
+        stripe.clear();
+        while (stripe.hasRemaining()) {
+            stripe.put(ZEROS, 0, Math.min(ZEROS.length, stripe.remaining()));
+        }
+        stripe.clear();
+    }
+
+    /**
+     * Return the size in bytes of a stripe.
+     *
+     * @param stripe the stripe.
+     * @return the size in bytes of the stripe.
+     */
+    private int getStripeBytes(int stripe) {
+        long first = (long) stripe << STRIPE_SHIFT;
+        return (int) (Math.min(length - first, 1L << STRIPE_SHIFT) * Long.BYTES);
+    }
+
+    /**
+     * Return the value at a given index.
+     *
+     * @param index the index.
+     * @return the value at index.
+     */
+    long get(long index) {
+        return stripes[(int) (index >>> STRIPE_SHIFT)].get((int) (index & STRIPE_MASK));
+    }
+
+    /**
+     * Set the value at a given index.
+     *
+     * @param index the index.
+     * @param value the new value.
+     */
+    void set(long index, long value) {
+        stripes[(int) (index >>> STRIPE_SHIFT)].put((int) (index & STRIPE_MASK), value);
+    }
+
+    /**
+     * Add a value at the value at a given index.
+     *
+     * @param index the index.
+     * @param value the value to be added.
+     */
+    void add(long index, long value) {
+        LongBuffer stripe = stripes[(int) (index >>> STRIPE_SHIFT)];
+        int position = (int) (index & STRIPE_MASK);
+        stripe.put(position, stripe.get(position) + value);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import deglans.fractalview.utility.RenderScheduler;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Implementation of Nebulabrot: the Buddhabrots with different maximum
+ * numbers of iterations are calculated in one pass, every orbit is traced
+ * once up to the largest limit and added at the band of its length.
+ * Every band is tone mapped and added at the image with its own color.
+ * https://en.wikipedia.org/wiki/Buddhabrot#Nuances
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public class NebulabrotSimple extends BuddhabrotSimple {
+
+    /**
+     * The color of every band.
+     */
+    private final Color[] colors;
+
+    /**
+     * Create a new instance for one fractal calculus.
+     *
+     * @param plane the CartesianPlane for conversion between CanvasPoint and Complex coordinate.
+     * @param image the image where draw the fractal.
+     * @param limits the maximum number of iterations of every band, ascending.
+     * @param colors the color of every band (for example blue, green and red).
+     * @param power the power of the fractal.
+     * @param supersampling the number of samples per side of a pixel.
+     */
+    public NebulabrotSimple(CartesianPlane plane, WritableImage image,
+            int[] limits, Color[] colors, Complex power, int supersampling) {
+
+        super(plane, image, limits[limits.length - 1], power, supersampling,
+                Color.BLACK, Color.WHITE);
+
+        if (colors.length != limits.length) {
+            throw new IllegalArgumentException("One color for every band is needed.");
+        }
+        this.colors = colors.clone();
+        setBands(limits);
+    }
+
+    /**
+     * Return the default colors for a number of bands,
+     * from blue for the first band to red for the last.
+     *
+     * @param bands the number of bands.
+     * @return the colors of the bands.
+     */
+    public static Color[] getDefaultColors(int bands) {
+        Color[] colors = new Color[bands];
+        for (int b = 0; b < bands; b++) {
+            colors[b] = Color.hsb((bands > 1) ? 240 - 240.0 * b / (bands - 1) : 0, 1, 1);
+        }
+        return colors;
+    }
+
+    /**
+     * Draw the image by adding the normalized bands with their colors.
+     */
+    @Override
+    protected void drawPixels(int[] pixels) {
+        final int bands = getBands();
+        final int rows = getRows();
+        final int columns = getColumns();
+        final float[][] levels = new float[bands][];
+        for (int b = 0; b < bands; b++) {
+            levels[b] = getLevels(b);
+        }
+
+        getScheduler().parallelFor(rows, RenderScheduler.Priority.FOREGROUND,
+                (int y) -> {
+            long[] row = new long[columns];
+            double[] red = new double[columns];
+            double[] green = new double[columns];
+            double[] blue = new double[columns];
+            for (int b = 0; b < bands; b++) {
+                getRow(b, y, row);
+                for (int x = 0; x < columns; x++) {
+                    double level = ToneMapper.getLevel(levels[b], row[x]);
+                    red[x] += colors[b].getRed() * level;
+                    green[x] += colors[b].getGreen() * level;
+                    blue[x] += colors[b].getBlue() * level;
+                }
+            }
+            for (int x = 0; x < columns; x++) {
+                pixels[y * columns + x] = ToneMapper.toArgb(red[x], green[x], blue[x]);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the escaping seeds of a formula with their escape counts, so a
+ * later render traces only the known escaping seeds, without the escape
+ * tests, and takes the band of an orbit from its count.
+ *
+ * The random seeds do not depend on the view (see get()): they are cached
+ * in blocks of BuddhabrotBase.BATCH seeds, with the seed of the generator
+ * of the block. Only the complete blocks are cached, so the cached seeds are
+ * still a uniform sample. The seeds of the grid depend on the view and on
+ * the supersampling (see getGrid()): they are cached by rows of the view.
+ *
+ * The caches of the last MAX_CACHES formulas and views are kept, every one
+ * up to MAX_MEMORY bytes.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+final class SeedCache {
+
+    /**
+     * Maximum number of cached formulas and views.
+     */
+    static final int MAX_CACHES = 4;
+
+    /**
+     * Maximum memory of a cache in bytes.
+     */
+    static final long MAX_MEMORY = 1L << 25;
+
+    /**
+     * The caches by formula and view, the last used at the end.
+     */
+    private static final Map<String, SeedCache> CACHES = new LinkedHashMap<String, SeedCache>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SeedCache> eldest) {
+            return size() > MAX_CACHES;
+        }
+    };
+
+    /**
+     * The cached blocks, by number of block or by row.
+     */
+    private Block[] blocks = new Block[64];
+
+    /**
+     * The number of blocks added by add().
+     */
+    private int count = 0;
+
+    /**
+     * The memory of the cached blocks in bytes.
+     */
+    private long memory = 0;
+
+    /**
+     * Return the cache of the random seeds of a formula, created if needed.
+     *
+     * @param power the power of the fractal.
+     * @param maxIterations the maximum number of iterations.
+     * @return the cache of the formula.
+     */
+    static SeedCache get(Complex power, int maxIterations) {
+        return get(power.getReal() + " " + power.getImag() + " " + maxIterations);
+    }
+
+    /**
+     * Return the cache of the seeds of the grid of a view, created if needed.
+     *
+     * @param plane the view.
+     * @param supersampling the supersampling of the pixels.
+     * @param power the power of the fractal.
+     * @param maxIterations the maximum number of iterations.
+     * @return the cache of the grid.
+     */
+    static SeedCache getGrid(CartesianPlane plane, int supersampling, Complex power, int maxIterations) {
+        return get(power.getReal() + " " + power.getImag() + " " + maxIterations
+                + " grid " + plane.getWidth() + " " + plane.getHeight()
+                + " " + plane.getUpLeft().getReal() + " " + plane.getUpLeft().getImag()
+                + " " + plane.getDownRight().getReal() + " " + plane.getDownRight().getImag()
+                + " " + supersampling);
+    }
+
+    /**
+     * Return the cache of a key, created if needed.
+     *
+     * @param key the formula and eventually the view.
+     * @return the cache of the key.
+     */
+    private static synchronized SeedCache get(String key) {
+        return CACHES.computeIfAbsent(key, (String k) -> {
+            return new SeedCache();
+        });
+    }
+
+    /**
+     * Return the number of blocks added by add().
+     *
+     * @return the number of blocks.
+     */
+    synchronized int getBlocks() {
+        return count;
+    }
+
+    /**
+     * Return a block.
+     *
+     * @param index the number of the block or the row.
+     * @return the block or null if it is not cached.
+     */
+    synchronized Block getBlock(int index) {
+        return (index < blocks.length) ? blocks[index] : null;
+    }
+
+    /**
+     * Add a complete block of random seeds after the others,
+     * ignored if the cache is full.
+     *
+     * @param block the block.
+     */
+    synchronized void add(Block block) {
+        if (put(count, block)) {
+            count++;
+        }
+    }
+
+    /**
+     * Set the block of a row of the grid, ignored if the cache is full.
+     *
+     * @param row the row.
+     * @param block the block of the row.
+     */
+    synchronized void set(int row, Block block) {
+        if (getBlock(row) == null) {
+            put(row, block);
+        }
+    }
+
+    /**
+     * Save a block if the cache has the memory for it.
+     *
+     * @param index the number of the block or the row.
+     * @param block the block.
+     * @return true if the block is saved.
+     */
+    private boolean put(int index, Block block) {
+        block.trim();
+        if (memory + block.getMemory() > MAX_MEMORY) {
+            return false;
+        }
+        if (index >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(2 * blocks.length, index + 1));
+        }
+        blocks[index] = block;
+        memory += block.getMemory();
+        return true;
+    }
+
+    /**
+     * The seeds of a block or of a row: one bit for every seed, set if the
+     * seed escapes, and the escape counts of the escaping seeds in order.
+     * A block is filled by a single thread (see add(int)) and then only read.
+     */
+    static final class Block {
+
+        /**
+         * The seed of the generator of the block (0 for a row).
+         */
+        private final long seed;
+
+        /**
+         * The escaping bits: the bit i (of the long i / 64) is set if the seed i escapes.
+         */
+        private long[] escapes;
+
+        /**
+         * The escape counts of the escaping seeds.
+         */
+        private int[] lengths;
+
+        /**
+         * The number of seeds.
+         */
+        private int size = 0;
+
+        /**
+         * The number of escaping seeds.
+         */
+        private int escaping = 0;
+
+        /**
+         * Create an empty Block.
+         *
+         * @param seed the seed of the generator of the block (0 for a row).
+         * @param capacity the expected number of seeds.
+         */
+        Block(long seed, int capacity) {
+            this.seed = seed;
+            escapes = new long[(Math.max(1, capacity) + Long.SIZE - 1) / Long.SIZE];
+            lengths = new int[Math.max(1, capacity)];
+        }
+
+        /**
+         * Return the seed of the generator of the block.
+         *
+         * @return the seed of the block.
+         */
+        long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Add the next seed.
+         *
+         * @param length the escape count of the seed (-1 if it does not escape).
+         */
+        void add(int length) {
+            if (length >= 0) {
+                if (size / Long.SIZE >= escapes.length) {
+                    escapes = Arrays.copyOf(escapes, 2 * escapes.length);
+                }
+                if (escaping == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, 2 * lengths.length);
+                }
+                escapes[size / Long.SIZE] |= 1L << size;
+                lengths[escaping++] = length;
+            }
+            size++;
+        }
+
+        /**
+         * Return the number of seeds.
+         *
+         * @return the number of seeds.
+         */
+        int getSize() {
+            return size;
+        }
+
+        /**
+         * Check if a seed escapes.
+         *
+         * @param i the number of the seed.
+         * @return true if the seed escapes.
+         */
+        boolean isEscaping(int i) {
+            return (i / Long.SIZE < escapes.length) && ((escapes[i / Long.SIZE] & (1L << i)) != 0);
+        }
+
+        /**
+         * Return the escape count of an escaping seed.
+         *
+         * @param k the number of the seed among the escaping seeds.
+         * @return the escape count of the seed.
+         */
+        int getLength(int k) {
+            return lengths[k];
+        }
+
+        /**
+         * Return the memory of the block in bytes.
+         *
+         * @return the memory of the block.
+         */
+        long getMemory() {
+            return (long) Long.BYTES * escapes.length + (long) Integer.BYTES * lengths.length;
+        }
+
+        /**
+         * Release the unused capacity.
+         */
+        private void trim() {
+            escapes = Arrays.copyOf(escapes, (size + Long.SIZE - 1) / Long.SIZE);
+            lengths = Arrays.copyOf(lengths, escaping);
+        }
+
+    }
+
+}
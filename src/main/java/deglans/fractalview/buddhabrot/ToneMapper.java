@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.ColorPalette;
+import javafx.scene.paint.Color;
+
+/**
+ * Tone mapping of the values of a Histogram in levels between 0 and 1.
+ * The values from 0 to the white point (the maximum value or a percentile of
+ * the non-zero values) are mapped with a curve, the greater values are 1.
+ *
+ * The levels are calculated once for every drawing in a lookup table indexed
+ * by getIndex(): the values under 2048 have their own entry, the greater
+ * values share an entry every 1/1024 of their magnitude, so the table is
+ * small also for very large counts.
+ *
+ * @version 0.3
+ * @author Deglans Dalpasso
+ */
+public final class ToneMapper {
+
+    /**
+     * The curves of the tone mapping.
+     */
+    public enum Curve {
+
+        /**
+         * The value divided by the white point.
+         */
+        LINEAR,
+        /**
+         * The square root of LINEAR, brighter in the dim areas.
+         */
+        SQRT,
+        /**
+         * The logarithm of the value, for a large dynamic range.
+         */
+        LOG,
+        /**
+         * The rank of the value among the non-zero values (histogram equalization).
+         */
+        EQUALIZED
+    }
+
+    /**
+     * Base 2 logarithm of the number of entries for every power of 2 in the
+     * lookup table.
+     */
+    static final int INDEX_BITS = 10;
+
+    /**
+     * The values under this have their own entry in the lookup table.
+     */
+    static final long DIRECT = 2L << INDEX_BITS;
+
+    /**
+     * The curve.
+     */
+    private final Curve curve;
+
+    /**
+     * The fraction of the non-zero values under the white point (1 for the maximum value).
+     */
+    private final double clip;
+
+    /**
+     * Create a new tone mapping.
+     *
+     * @param curve the curve.
+     * @param clip the fraction of the non-zero values under the white point,
+     * between 0 (excluded) and 1 (the white point is the maximum value).
+     */
+    public ToneMapper(Curve curve, double clip) {
+        if (!((clip > 0) && (clip <= 1))) {
+            throw new IllegalArgumentException("The clip must be in (0, 1].");
+        }
+        this.curve = curve;
+        this.clip = clip;
+    }
+
+    /**
+     * Return the curve.
+     *
+     * @return the curve.
+     */
+    public Curve getCurve() {
+        return curve;
+    }
+
+    /**
+     * Return the fraction of the non-zero values under the white point.
+     *
+     * @return the clip.
+     */
+    public double getClip() {
+        return clip;
+    }
+
+    /**
+     * Return the entry of a value in the lookup table.
+     *
+     * @param value the value (not negative).
+     * @return the index of the value.
+     */
+    static int getIndex(long value) {
+        if (value < DIRECT) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - INDEX_BITS - 1;
+        return (shift << INDEX_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Return the smallest value of an entry of the lookup table.
+     *
+     * @param index the index.
+     * @return the smallest value with this index.
+     */
+    static long getIndexValue(int index) {
+        if (index < DIRECT) {
+            return index;
+        }
+        int shift = (index >>> INDEX_BITS) - 1;
+        return (long) (index - (shift << INDEX_BITS)) << shift;
+    }
+
+    /**
+     * Return the lookup table of the levels of a band of a Histogram at its
+     * last merge: the values with an index greater than the last entry have
+     * the level of the last entry (1).
+     *
+     * @param map the Histogram.
+     * @param band the band.
+     * @return the levels by index (see getIndex()).
+     */
+    float[] getLevels(Histogram map, int band) {
+        long white = Math.max(1, (clip < 1) ? map.getPercentile(band, clip) : map.getMax(band));
+        double whiteRank = (curve == Curve.EQUALIZED) ? map.getRank(band, white) : 0;
+        double logWhite = Math.log1p(white);
+
+        float[] levels = new float[getIndex(white) + 1];
+        for (int k = 1; k < levels.length; k++) {
+            long value = getIndexValue(k);
+            double level;
+            switch (curve) {
+                case SQRT:
+                    level = Math.sqrt((double) value / white);
+                    break;
+                case LOG:
+                    level = Math.log1p(value) / logWhite;
+                    break;
+                case EQUALIZED:
+                    level = map.getRank(band, value) / whiteRank;
+                    break;
+                default:
+                    level = (double) value / white;
+            }
+            levels[k] = (float) Math.min(1, level);
+        }
+        levels[levels.length - 1] = 1;
+        return levels;
+    }
+
+    /**
+     * Return the level of a value.
+     *
+     * @param levels the lookup table of the levels (see getLevels()).
+     * @param value the value.
+     * @return the level of the value.
+     */
+    static float getLevel(float[] levels, long value) {
+        return levels[Math.min(getIndex(value), levels.length - 1)];
+    }
+
+    /**
+     * Return the lookup table of the ARGB colors of the levels, interpolated
+     * between two colors.
+     *
+     * @param levels the lookup table of the levels (see getLevels()).
+     * @param zero the color of the level 0.
+     * @param max the color of the level 1.
+     * @return the colors by index (see getIndex()).
+     */
+    static int[] getColors(float[] levels, Color zero, Color max) {
+        int[] colors = new int[levels.length];
+        for (int k = 0; k < levels.length; k++) {
+            colors[k] = ColorPalette.toArgb(zero.interpolate(max, levels[k]));
+        }
+        return colors;
+    }
+
+    /**
+     * Return the color of a value.
+     *
+     * @param colors the lookup table of the colors (see getColors()).
+     * @param value the value.
+     * @return the ARGB color of the value.
+     */
+    static int getColor(int[] colors, long value) {
+        return colors[Math.min(getIndex(value), colors.length - 1)];
+    }
+
+    /**
+     * Return the ARGB value of an opaque color, every component is clamped at 1.
+     *
+     * @param red the red component (not negative).
+     * @param green the green component (not negative).
+     * @param blue the blue component (not negative).
+     * @return the ARGB value.
+     */
+    static int toArgb(double red, double green, double blue) {
+        return 0xff000000
+                | ((int) Math.round(Math.min(1, red) * 255) << 16)
+                | ((int) Math.round(Math.min(1, green) * 255) << 8)
+                | (int) Math.round(Math.min(1, blue) * 255);
+    }
+
+}
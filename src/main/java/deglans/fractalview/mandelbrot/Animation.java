@@ -14,14 +14,13 @@ import com.icafe4j.image.gif.GIFTweaker;
 import deglans.fractalview.utility.CartesianPlane;
 import deglans.fractalview.utility.ColorPalette;
 import deglans.fractalview.utility.Complex;
+import deglans.fractalview.utility.RenderScheduler;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import javafx.concurrent.Task;
@@ -31,7 +30,7 @@ import javafx.scene.image.WritableImage;
 /**
  * Create gif animations of fractals.
  *
- * @version 0.6
+ * @version 0.7
  * @author Deglans Dalpasso
  */
 public class Animation extends Task<Long> {
@@ -124,7 +123,7 @@ public class Animation extends Task<Long> {
     protected Long call() throws Exception {
         long startTime = System.currentTimeMillis();
         long calcTime = 0;
-        ExecutorService executor = null;
+        RenderScheduler scheduler = null;
 
         try {
             frameBuffer = new WritableImage[frameNumber];
@@ -133,8 +132,8 @@ public class Animation extends Task<Long> {
                 return System.currentTimeMillis() - startTime;
             }
 
-            executor = Executors.newWorkStealingPool();
-            //executor = Executors.newFixedThreadPool(4);
+            // The frames share the worker threads with the other renderings
+            scheduler = RenderScheduler.getDefault();
             updateProgress(count.incrementAndGet(), maxCount); // * 2
             if (isCancelled()) {
                 return System.currentTimeMillis() - startTime;
@@ -146,7 +145,7 @@ public class Animation extends Task<Long> {
                 return System.currentTimeMillis() - startTime;
             }
 
-            frameFuture = executor.invokeAll(frameThread);
+            frameFuture = scheduler.invokeAll(frameThread);
             for (Future<Long> f : frameFuture) {
                 calcTime += f.get();
             }
@@ -158,12 +157,6 @@ public class Animation extends Task<Long> {
         catch (InterruptedException ex) {
             System.err.println(ex.toString());
         }
-        finally {
-            // Turnoff the executor
-            if (executor != null) {
-                executor.shutdown();
-            }
-        }
 
         return System.currentTimeMillis() - startTime + calcTime;
     }
@@ -192,6 +185,7 @@ public class Animation extends Task<Long> {
             MandelbrotBase tmp =
                     FractalFactory.bulidFractal(selectedFractal, nextDataBox(k), colorPalette);
 
+            tmp.setPriority(RenderScheduler.Priority.BACKGROUND);
             tmp.setOnFinish(t -> {
                 updateProgress(count.incrementAndGet(), maxCount);
                 return null;
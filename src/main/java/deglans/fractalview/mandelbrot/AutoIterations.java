@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.ProgressMeter;
+import deglans.fractalview.utility.RenderScheduler;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import javafx.concurrent.Task;
+
+/**
+ * AutoIterations chooses maxIterations for a view.
+ * It renders a low resolution probe of the view doubling the limit until
+ * almost no pixel escapes in the last doubling, then it takes the smallest
+ * maxIterations that keeps the fraction of unresolved boundary pixels
+ * (pixels of the probe that escape but would be drawn as in the set)
+ * under a target.
+ * Only the escape-time fractals that can be continued are supported,
+ * for the others the given maxIterations is returned.
+ * The probe runs on the given RenderScheduler at BACKGROUND priority
+ * and stops at MAX_PROBE_WORK iterations.
+ *
+ * @version 0.6
+ * @author Deglans Dalpasso
+ */
+public class AutoIterations extends Task<Integer> {
+
+    /**
+     * Default number of pixels per side of the probe.
+     */
+    public static final int DEFAULT_PROBE_SIZE = 64;
+
+    /**
+     * Default fraction of unresolved boundary pixels.
+     */
+    public static final double DEFAULT_TARGET = 0.002;
+
+    /**
+     * Minimum value of maxIterations.
+     */
+    public static final int MIN_ITERATIONS = 50;
+
+    /**
+     * Maximum value of maxIterations.
+     */
+    public static final int MAX_ITERATIONS = 1 << 16;
+
+    /**
+     * Maximum number of iterations of all the pixels of the probe, so a view
+     * with few escaping pixels does not delay the render.
+     */
+    public static final long MAX_PROBE_WORK = 1L << 24;
+
+    /**
+     * Length of the palette of the probe, the smallest valid one:
+     * the probe never colors a pixel.
+     */
+    private static final int PROBE_PALETTE_LENGTH = 2;
+
+    /**
+     * The selected fractal (see FractalFactory).
+     */
+    private final String selectedFractal;
+
+    /**
+     * The data of the view.
+     */
+    private final DataBox dataBox;
+
+    /**
+     * Number of pixels per side of the probe.
+     */
+    private final int probeSize;
+
+    /**
+     * Fraction of unresolved boundary pixels.
+     */
+    private final double target;
+
+    /**
+     * The RenderScheduler of the probe (null for the default one).
+     */
+    private final RenderScheduler scheduler;
+
+    /**
+     * Counter of the iterations done by the probe.
+     */
+    private final ProgressMeter progress = new ProgressMeter(MAX_PROBE_WORK);
+
+    /**
+     * Create an AutoIterations instance with the default probe size and target.
+     *
+     * @param selectedFractal the selected fractal (see FractalFactory).
+     * @param dataBox the data of the view.
+     * @param scheduler the scheduler of the probe (null for the default one).
+     */
+    public AutoIterations(String selectedFractal, DataBox dataBox, RenderScheduler scheduler) {
+        this(selectedFractal, dataBox, scheduler, DEFAULT_PROBE_SIZE, DEFAULT_TARGET);
+    }
+
+    /**
+     * Create an AutoIterations instance with the given data.
+     *
+     * @param selectedFractal the selected fractal (see FractalFactory).
+     * @param dataBox the data of the view.
+     * @param scheduler the scheduler of the probe (null for the default one).
+     * @param probeSize number of pixels per side of the probe.
+     * @param target fraction of unresolved boundary pixels.
+     */
+    public AutoIterations(String selectedFractal, DataBox dataBox, RenderScheduler scheduler,
+            int probeSize, double target) {
+        this.selectedFractal = selectedFractal;
+        this.dataBox = dataBox;
+        this.scheduler = scheduler;
+        this.probeSize = probeSize;
+        this.target = target;
+    }
+
+    /**
+     * Return the RenderScheduler that runs the probe.
+     *
+     * @return the scheduler given to the constructor or the default one.
+     */
+    public RenderScheduler getScheduler() {
+        return (scheduler != null) ? scheduler : RenderScheduler.getDefault();
+    }
+
+    /**
+     * Return the ProgressMeter of the probe, that counts its iterations.
+     *
+     * @return the ProgressMeter of the probe.
+     */
+    public ProgressMeter getProgressMeter() {
+        return progress;
+    }
+
+    /**
+     * Function for choose maxIterations.
+     *
+     * @return the chosen maxIterations.
+     * @throws Exception
+     */
+    @Override
+    protected Integer call() throws Exception {
+        // Progress in iterations of the probe, sampled at a fixed rate
+        ScheduledFuture<?> sampling = progress.sample(meter -> {
+            updateProgress(meter.getDone(), meter.getTotal());
+        });
+        try {
+            return probe();
+        }
+        finally {
+            sampling.cancel(false);
+        }
+    }
+
+    /**
+     * Render the probe and choose maxIterations.
+     *
+     * Package-private for the tests, it does not need the JavaFX toolkit.
+     *
+     * @return the chosen maxIterations.
+     */
+    int probe() {
+        CartesianPlane plane = dataBox.getCartesianPlane();
+
+        // The probe keeps the proportions of the view
+        double ratio = plane.getHeight() / plane.getWidth();
+        int width = Math.min(probeSize, (int) plane.getWidth());
+        int height = Math.max(1, (int) Math.round(width * ratio));
+        CartesianPlane probePlane = new CartesianPlane(width, height,
+                plane.getUpLeft(), plane.getDownRight());
+
+        DataBox probeBox = new DataBox(MAX_ITERATIONS, dataBox.getPower(),
+                dataBox.getConstant(), probePlane, null);
+        MandelbrotBase fractal = FractalFactory.bulidFractal(selectedFractal, probeBox,
+                new ColorPalette(PROBE_PALETTE_LENGTH, false));
+
+        if (!(fractal instanceof EscapeTimeBase) || !((EscapeTimeBase) fractal).isResumable()) {
+            return dataBox.getMaxIterations();
+        }
+        EscapeTimeBase kernel = (EscapeTimeBase) fractal;
+
+        Orbit[] orbits = new Orbit[width * height];
+        for (int i = 0; i < orbits.length; i++) {
+            orbits[i] = kernel.startOrbit(probePlane.toComplex(i % width, i / width));
+        }
+
+        // Double the limit until almost nothing escapes in the last doubling
+        int limit = MIN_ITERATIONS;
+        int previousLimit = 0;
+        while (!isCancelled()) {
+            // Only the orbits not escaped yet are iterated in this doubling
+            final int from = previousLimit;
+            long active = Arrays.stream(orbits).filter(orbit -> orbit.getCount() >= from).count();
+            long work = active * (limit - previousLimit);
+            if (progress.getDone() + work > MAX_PROBE_WORK) {
+                return (previousLimit > 0) ? chooseIterations(orbits, previousLimit)
+                        : dataBox.getMaxIterations();
+            }
+
+            final int max = limit;
+            getScheduler().parallelFor(orbits.length, RenderScheduler.Priority.BACKGROUND,
+                    (int i) -> {
+                if (!isCancelled()) {
+                    kernel.iterate(probePlane.toComplex(i % width, i / width), orbits[i], max);
+                }
+            });
+
+            int escaped = 0;
+            int late = 0;
+            for (Orbit orbit : orbits) {
+                if (orbit.getCount() < limit) {
+                    escaped++;
+                    if (orbit.getCount() >= previousLimit) {
+                        late++;
+                    }
+                }
+            }
+
+            progress.add(work);
+
+            // A view inside the set needs no more than the given maxIterations
+            if ((escaped == 0) && (limit >= dataBox.getMaxIterations())) {
+                return MIN_ITERATIONS;
+            }
+            // Deep views need some escaped pixels before the histogram makes sense
+            if ((limit >= MAX_ITERATIONS) || ((escaped > late) && (late <= target * orbits.length))) {
+                return chooseIterations(orbits, limit);
+            }
+            previousLimit = limit;
+            limit = Math.min(limit * 2, MAX_ITERATIONS);
+        }
+
+        return dataBox.getMaxIterations();
+    }
+
+    /**
+     * Choose the smallest maxIterations that resolve all but
+     * a target fraction of the pixels of the probe.
+     *
+     * @param orbits the orbits of the probe.
+     * @param limit the limit reached by the orbits.
+     * @return the chosen maxIterations.
+     */
+    private int chooseIterations(Orbit[] orbits, int limit) {
+        int[] counts = Arrays.stream(orbits)
+                .mapToInt(Orbit::getCount)
+                .filter(count -> count < limit)
+                .sorted()
+                .toArray();
+
+        if (counts.length == 0) {
+            return MIN_ITERATIONS;
+        }
+
+        // Histogram of the escape counts: leave at most target * pixels unresolved
+        int unresolved = (int) Math.floor(target * orbits.length);
+        int index = counts.length - 1 - unresolved;
+        if (index < 0) {
+            return MIN_ITERATIONS;
+        }
+        int chosen = counts[index] + 1;
+        return Math.max(MIN_ITERATIONS, chosen);
+    }
+
+}
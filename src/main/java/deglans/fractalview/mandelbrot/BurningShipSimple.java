@@ -18,15 +18,10 @@ import javafx.scene.paint.Color;
  * BurningShipSimple is a variant of the Mandelbrot fractals.
  * BurningShipSimple use the escape-time algorithm and a simple color palette.
  *
- * @version 0.11
+ * @version 0.14
  * @author Deglans Dalpasso
  */
-public class BurningShipSimple extends MandelbrotBase {
-
-    /**
-     * The data of this fractal instance.
-     */
-    protected final DataBox dataBox;
+public class BurningShipSimple extends EscapeTimeBase {
 
     /**
      * The color palette of this fractal instance.
@@ -41,8 +36,7 @@ public class BurningShipSimple extends MandelbrotBase {
      * @param hue if true, use a HUE palette, else use the default color palette.
      */
     public BurningShipSimple(DataBox dataBox, boolean hue) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = new ColorPalette(this.dataBox.getMaxIterations(), hue);
     }
 
@@ -53,29 +47,51 @@ public class BurningShipSimple extends MandelbrotBase {
      * @param colorPalette the palette of this fractal instance.
      */
     public BurningShipSimple(DataBox dataBox, ColorPalette colorPalette) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = colorPalette;
     }
 
     /**
-     * Calculate the color of c through the escape-time algorithm.
+     * The orbits of the Burning Ship fractals start from z = 0.
+     *
+     * @param c the point to be calculated.
+     * @return the initial orbit of c.
+     */
+    @Override
+    protected Orbit startOrbit(Complex c) {
+        return new Orbit(new Complex(0, 0), 0);
+    }
+
+    /**
+     * Continue the escape-time algorithm until the orbit escapes or reaches maxIterations.
      *
      * @param c the point to be calculated.
-     * @return the color of c.
+     * @param orbit the orbit of c, updated with the new state.
+     * @param maxIterations the maximum number of iterations.
      */
     @Override
-    protected Color calcPoint(Complex c) {
-        Complex z = new Complex(0, 0);
+    protected void iterate(Complex c, Orbit orbit, int maxIterations) {
+        Complex z = orbit.getZ();
         Complex tmp;
-        int count = 0;
+        int count = orbit.getCount();
 
-        while ((count < dataBox.getMaxIterations()) && (z.mod() < 2)) {
+        while ((count < maxIterations) && (z.mod() < 2)) {
             tmp = new Complex(Math.abs(z.getReal()), Math.abs(z.getImag()));
             z = tmp.pow(dataBox.getPower()).minus(c);
             count++;
         }
 
+        orbit.set(z, count);
+    }
+
+    /**
+     * Return the color associated with a number of iterations.
+     *
+     * @param count the number of iterations.
+     * @return the color of count.
+     */
+    @Override
+    protected Color getColor(int count) {
         return colorPalette.getColor(count);
     }
 
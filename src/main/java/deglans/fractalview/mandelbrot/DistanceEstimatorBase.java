@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.Complex;
+import javafx.scene.paint.Color;
+
+/**
+ * DistanceEstimatorBase is the root for the fractals colored by the
+ * estimated distance to the boundary of the set.
+ * This class iterates z and its derivative dz = p * z^(p-1) * dz + dc,
+ * the subclasses give only the starting z and dz and the constant c of
+ * the fractal (see getStartZ(), getStartDz(), getC() and getDc()).
+ * The distance is converted to a color and, if requested, only the pixels
+ * that are within a pixel-width of the boundary are supersampled.
+ *
+ * http://mrob.com/pub/muency/distanceestimator.html
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public abstract class DistanceEstimatorBase extends MandelbrotBase {
+
+    /**
+     * Distance returned for the points that are in the set.
+     */
+    public static final double IN_SET = -1;
+
+    /**
+     * Escape radius, bigger than the escape-time one for a better estimation.
+     */
+    public static final double ESCAPE_RADIUS = 1000;
+
+    /**
+     * Distance (in pixels) mapped to the first color of the palette.
+     */
+    public static final double DISTANCE_RANGE = 256;
+
+    /**
+     * Default number of samples per side for the pixels near the boundary.
+     */
+    public static final int DEFAULT_SUPERSAMPLING = 4;
+
+    /**
+     * The color palette of this fractal instance.
+     */
+    protected final ColorPalette colorPalette;
+
+    /**
+     * Number of samples per side for the pixels near the boundary (0 or 1 for none).
+     */
+    private final int supersampling;
+
+    /**
+     * The width of a pixel in the CartesianPlane unit.
+     */
+    private final double pixelWidth;
+
+    /**
+     * Create a DistanceEstimatorBase instance with the given data.
+     *
+     * @param dataBox the data of this fractal instance.
+     * @param colorPalette the palette of this fractal instance.
+     * @param supersampling number of samples per side for the pixels near the boundary.
+     */
+    public DistanceEstimatorBase(DataBox dataBox, ColorPalette colorPalette, int supersampling) {
+        super(dataBox);
+        this.colorPalette = colorPalette;
+        this.supersampling = supersampling;
+        this.pixelWidth = 1 / dataBox.getCartesianPlane().getScale();
+    }
+
+    /**
+     * Calculate the color of c from the estimated distance.
+     * If the pixel is within a pixel-width of the boundary it is supersampled.
+     *
+     * @param c the point to be calculated.
+     * @return the color of c.
+     */
+    @Override
+    protected Color calcPoint(Complex c) {
+        double distance = estimateDistance(c);
+
+        if (isSupersampled() && (distance >= 0) && (distance < pixelWidth)) {
+            return calcPointSS(c);
+        }
+
+        return getColor(distance);
+    }
+
+    /**
+     * Average the colors of supersampling x supersampling points
+     * uniformly distributed inside the pixel centered on c, so that
+     * the samples of a mirrored pixel are the mirror of its samples.
+     *
+     * @param c the center of the pixel.
+     * @return the average color of the pixel.
+     */
+    private Color calcPointSS(Complex c) {
+        int red = 0, green = 0, blue = 0;
+
+        for (int j = 0; j < supersampling; j++) {
+            for (int i = 0; i < supersampling; i++) {
+                // The offsets of i and supersampling - 1 - i are exactly opposite
+                Complex sample = new Complex(
+                        c.getReal() + (2 * i + 1 - supersampling) * pixelWidth / (2 * supersampling),
+                        c.getImag() - (2 * j + 1 - supersampling) * pixelWidth / (2 * supersampling));
+                int argb = ColorPalette.toArgb(getColor(estimateDistance(sample)));
+                red += (argb >> 16) & 0xff;
+                green += (argb >> 8) & 0xff;
+                blue += argb & 0xff;
+            }
+        }
+
+        int n = supersampling * supersampling;
+        return Color.rgb(red / n, green / n, blue / n);
+    }
+
+    /**
+     * Check if the pixels near the boundary are supersampled.
+     *
+     * @return true if the pixels near the boundary are supersampled.
+     */
+    protected boolean isSupersampled() {
+        return supersampling > 1;
+    }
+
+    /**
+     * Convert a distance into a color: the nearest points to the boundary
+     * take the last colors of the palette, like the slow escaping points
+     * of the escape-time algorithm.
+     *
+     * @param distance the estimated distance (IN_SET for the points in the set).
+     * @return the color of the distance.
+     */
+    protected Color getColor(double distance) {
+        int length = colorPalette.getLength();
+
+        if (distance < 0) {
+            return colorPalette.getColor(length);
+        }
+
+        double t = Math.min(1, Math.log1p(distance / pixelWidth) / Math.log1p(DISTANCE_RANGE));
+        return colorPalette.getColor((int) ((1 - t) * (length - 1)));
+    }
+
+    /**
+     * Estimate the distance between c and the boundary of the set.
+     * For an escaped orbit the estimation is |z| * log|z| / |dz| / 2,
+     * where dz is the derivative of z.
+     *
+     * @param c the point to be calculated.
+     * @return the estimated distance or IN_SET if c does not escape.
+     */
+    public double estimateDistance(Complex c) {
+        Complex power = dataBox.getPower();
+        Complex powerMinusOne = power.minus(new Complex(1, 0));
+        Complex constant = getC(c);
+        Complex dc = getDc();
+        Complex z = getStartZ(c);
+        Complex dz = getStartDz();
+        int count = 0;
+
+        while ((count < dataBox.getMaxIterations()) && (z.mod() < ESCAPE_RADIUS)) {
+            dz = power.times(z.pow(powerMinusOne)).times(dz).plus(dc);
+            z = z.pow(power).plus(constant);
+            count++;
+        }
+
+        if (z.mod() < ESCAPE_RADIUS) {
+            return IN_SET;
+        }
+
+        return distance(z, dz);
+    }
+
+    /**
+     * Return the value of z before the first iteration.
+     *
+     * @param c the point to be calculated.
+     * @return the starting z.
+     */
+    protected abstract Complex getStartZ(Complex c);
+
+    /**
+     * Return the value of the derivative before the first iteration.
+     *
+     * @return the starting dz.
+     */
+    protected abstract Complex getStartDz();
+
+    /**
+     * Return the constant added at every iteration.
+     *
+     * @param c the point to be calculated.
+     * @return the constant of the iterations of c.
+     */
+    protected abstract Complex getC(Complex c);
+
+    /**
+     * Return the derivative of the constant, added at the derivative
+     * at every iteration.
+     *
+     * @return the derivative of the constant.
+     */
+    protected abstract Complex getDc();
+
+    /**
+     * Estimate the distance from the last value of z and of its derivative.
+     *
+     * @param z the last value of z.
+     * @param dz the last value of the derivative.
+     * @return the estimated distance.
+     */
+    protected static double distance(Complex z, Complex dz) {
+        double mod = z.mod();
+        return 0.5 * mod * Math.log(mod) / dz.mod();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.Complex;
+import javafx.scene.paint.Color;
+
+/**
+ * EscapeTimeBase is the root for the fractals colored by the number of
+ * iterations of the escape-time algorithm.
+ * MandelbrotBase uses the number of iterations of these fractals for the
+ * anti-aliasing of the edges, and their orbits for the incremental
+ * deepening and the TileCache if they are resumable (see isResumable()).
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public abstract class EscapeTimeBase extends MandelbrotBase {
+
+    /**
+     * Create a new instance for one fractal calculus.
+     *
+     * @param dataBox the data of this fractal instance.
+     */
+    public EscapeTimeBase(DataBox dataBox) {
+        super(dataBox);
+    }
+
+    /**
+     * Calculate the color of c through the escape-time algorithm.
+     *
+     * @param c the point to be calculated.
+     * @return the color of c.
+     */
+    @Override
+    protected Color calcPoint(Complex c) {
+        return getColor(calcIterations(c));
+    }
+
+    /**
+     * Calculate the number of iterations of c through the escape-time algorithm,
+     * from the initial orbit to maxIterations.
+     *
+     * @param c the point to be calculated.
+     * @return the number of iterations done.
+     */
+    protected int calcIterations(Complex c) {
+        Orbit orbit = startOrbit(c);
+        iterate(c, orbit, dataBox.getMaxIterations());
+        return orbit.getCount();
+    }
+
+    /**
+     * The function used to color a number of iterations.
+     *
+     * @param count the number of iterations.
+     * @return the color of count.
+     */
+    protected abstract Color getColor(int count);
+
+    /**
+     * Check if the iterations can be continued from an Orbit with the
+     * current data (see startOrbit() and iterate()).
+     *
+     * @return true if the fractal support the incremental deepening.
+     */
+    protected boolean isResumable() {
+        return true;
+    }
+
+    /**
+     * Return the state of the escape-time algorithm before the first iteration.
+     *
+     * @param c the point to be calculate.
+     * @return the initial orbit of c.
+     */
+    protected abstract Orbit startOrbit(Complex c);
+
+    /**
+     * Continue the escape-time iterations of c until the orbit escapes
+     * or reaches maxIterations.
+     * If isResumable() return false it is called only on the initial orbit.
+     *
+     * @param c the point to be calculate.
+     * @param orbit the orbit of c, updated with the new state.
+     * @param maxIterations the maximum number of iterations.
+     */
+    protected abstract void iterate(Complex c, Orbit orbit, int maxIterations);
+
+}
@@ -15,7 +15,7 @@ import deglans.fractalview.utility.ColorPalette;
 /**
  * FractalFactory is the factory for all fractal.
  *
- * @version 0.3
+ * @version 0.4
  * @author Deglans Dalpasso
  */
 public class FractalFactory {
@@ -39,7 +39,11 @@ public class FractalFactory {
         "Burning Julia Simple",
         "Burning Julia Simple (default color)",
         "Burning Julia Simple (HUE color)",
-        "Mandelbrot Lyapunov"
+        "Mandelbrot Lyapunov",
+        "Mandelbrot Distance Estimation",
+        "Mandelbrot Distance Estimation (supersampling)",
+        "Julia Distance Estimation",
+        "Julia Distance Estimation (supersampling)"
     };
 
     /**
@@ -102,6 +106,20 @@ public class FractalFactory {
             case "Mandelbrot Lyapunov":
                 return new MandelbrotLyapunov(dataBox, false);
 
+            case "Mandelbrot Distance Estimation":
+                return new MandelbrotDistance(dataBox, colorPalette, 0);
+
+            case "Mandelbrot Distance Estimation (supersampling)":
+                return new MandelbrotDistance(dataBox, colorPalette,
+                        DistanceEstimatorBase.DEFAULT_SUPERSAMPLING);
+
+            case "Julia Distance Estimation":
+                return new JuliaDistance(dataBox, colorPalette, 0);
+
+            case "Julia Distance Estimation (supersampling)":
+                return new JuliaDistance(dataBox, colorPalette,
+                        DistanceEstimatorBase.DEFAULT_SUPERSAMPLING);
+
             default:
                 return null;
         }
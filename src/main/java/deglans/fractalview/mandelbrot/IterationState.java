@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import java.util.Arrays;
+
+/**
+ * IterationState keeps the number of iterations of every pixel of a view and
+ * the last z of the pixels that reached maxIterations.
+ * A new rendering of the same view can continue these pixels when
+ * maxIterations increases, or take the image straight from the counts
+ * when it decreases.
+ *
+ * The last z is kept only for the pixels that reached maxIterations, as a
+ * list of pixel indexes with their z: the calculus threads append to the
+ * list (see setOrbit()) and pack() sorts it by index at the end of the
+ * rendering, so that getOrbit() can search it.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public class IterationState {
+
+    /**
+     * The class of the fractal.
+     */
+    private final Class<?> fractal;
+
+    /**
+     * The power used for the calculus.
+     */
+    private final Complex power;
+
+    /**
+     * The constant used for the calculus.
+     */
+    private final Complex constant;
+
+    /**
+     * The up left corner of the view.
+     */
+    private final Complex upLeft;
+
+    /**
+     * The down right corner of the view.
+     */
+    private final Complex downRight;
+
+    /**
+     * The width of the view in pixels.
+     */
+    private final int width;
+
+    /**
+     * The height of the view in pixels.
+     */
+    private final int height;
+
+    /**
+     * The number of max iterations used for the calculus.
+     */
+    private final int maxIterations;
+
+    /**
+     * The number of iterations of every pixel.
+     */
+    private final int[] counts;
+
+    /**
+     * Initial capacity of the list of the saved z.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The index of the pixels with a saved z (sorted after pack()).
+     */
+    private int[] indexes = new int[INITIAL_CAPACITY];
+
+    /**
+     * The real part of the saved z.
+     */
+    private double[] re = new double[INITIAL_CAPACITY];
+
+    /**
+     * The imaginary part of the saved z.
+     */
+    private double[] im = new double[INITIAL_CAPACITY];
+
+    /**
+     * The number of saved z.
+     */
+    private int size = 0;
+
+    /**
+     * Create an empty IterationState for the given fractal.
+     *
+     * @param fractal the fractal that fill this state.
+     * @param dataBox the data of the fractal.
+     */
+    IterationState(MandelbrotBase fractal, DataBox dataBox) {
+        CartesianPlane plane = dataBox.getCartesianPlane();
+
+        this.fractal = fractal.getClass();
+        this.power = dataBox.getPower();
+        this.constant = dataBox.getConstant();
+        this.upLeft = plane.getUpLeft();
+        this.downRight = plane.getDownRight();
+        this.width = (int) plane.getWidth();
+        this.height = (int) plane.getHeight();
+        this.maxIterations = dataBox.getMaxIterations();
+
+        counts = new int[width * height];
+    }
+
+    /**
+     * Check if this state belong to the same fractal and view.
+     *
+     * @param fractal the fractal to check.
+     * @param dataBox the data of the fractal.
+     * @return true if the pixels of this state can be used by fractal.
+     */
+    boolean isCompatible(MandelbrotBase fractal, DataBox dataBox) {
+        CartesianPlane plane = dataBox.getCartesianPlane();
+
+        return (this.fractal == fractal.getClass())
+                && same(power, dataBox.getPower())
+                && same(constant, dataBox.getConstant())
+                && same(upLeft, plane.getUpLeft())
+                && same(downRight, plane.getDownRight())
+                && (width == (int) plane.getWidth())
+                && (height == (int) plane.getHeight());
+    }
+
+    /**
+     * Check if two Complex numbers are exactly equal.
+     *
+     * @param a the first number.
+     * @param b the second number.
+     * @return true if a and b are equal.
+     */
+    private static boolean same(Complex a, Complex b) {
+        return (a.getReal() == b.getReal()) && (a.getImag() == b.getImag());
+    }
+
+    /**
+     * Return the number of max iterations used for the calculus.
+     *
+     * @return the number of max iterations used for the calculus.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Return the number of iterations of a pixel.
+     *
+     * @param index the index of the pixel (y * width + x).
+     * @return the number of iterations of the pixel.
+     */
+    int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Return the orbit of a pixel that reached maxIterations.
+     *
+     * @param index the index of the pixel (y * width + x).
+     * @return the orbit or null if it was not saved.
+     */
+    Orbit getOrbit(int index) {
+        if (counts[index] < maxIterations) {
+            return null;
+        }
+        int slot = Arrays.binarySearch(indexes, 0, size, index);
+        if (slot < 0) {
+            return null;
+        }
+        return new Orbit(new Complex(re[slot], im[slot]), counts[index]);
+    }
+
+    /**
+     * Save the number of iterations of a pixel.
+     *
+     * @param index the index of the pixel (y * width + x).
+     * @param count the number of iterations.
+     */
+    void setCount(int index, int count) {
+        counts[index] = count;
+    }
+
+    /**
+     * Save the orbit of a pixel, the last z is saved only if
+     * the orbit reached maxIterations.
+     *
+     * @param index the index of the pixel (y * width + x).
+     * @param orbit the orbit of the pixel.
+     */
+    void setOrbit(int index, Orbit orbit) {
+        counts[index] = orbit.getCount();
+        if (orbit.getCount() >= maxIterations) {
+            append(index, orbit.getZ());
+        }
+    }
+
+    /**
+     * Append the last z of a pixel to the list, can be called by any thread.
+     *
+     * @param index the index of the pixel (y * width + x).
+     * @param z the last z of the pixel.
+     */
+    private synchronized void append(int index, Complex z) {
+        if (size == indexes.length) {
+            int capacity = size + (size >> 1);
+            indexes = Arrays.copyOf(indexes, capacity);
+            re = Arrays.copyOf(re, capacity);
+            im = Arrays.copyOf(im, capacity);
+        }
+        indexes[size] = index;
+        re[size] = z.getReal();
+        im[size] = z.getImag();
+        size++;
+    }
+
+    /**
+     * Sort the saved z by pixel index and release the unused capacity.
+     * Must be called when all the pixels are saved, before getOrbit().
+     */
+    synchronized void pack() {
+        // The index in the high bits, the position in the list in the low bits
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) indexes[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int[] sortedIndexes = new int[size];
+        double[] sortedRe = new double[size];
+        double[] sortedIm = new double[size];
+        for (int i = 0; i < size; i++) {
+            int position = (int) order[i];
+            sortedIndexes[i] = indexes[position];
+            sortedRe[i] = re[position];
+            sortedIm[i] = im[position];
+        }
+        indexes = sortedIndexes;
+        re = sortedRe;
+        im = sortedIm;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.Complex;
+
+/**
+ * JuliaDistance colors the Julia fractals by the estimated distance
+ * to the boundary, so the thin filaments stay visible at normal resolutions.
+ * The derivative follows dz = p * z^(p-1) * dz with dz = 1 at start.
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public class JuliaDistance extends DistanceEstimatorBase {
+
+    /**
+     * Create a JuliaDistance instance with the given data.
+     *
+     * @param dataBox the data of this fractal instance.
+     * @param colorPalette the palette of this fractal instance.
+     * @param supersampling number of samples per side for the pixels near the boundary.
+     */
+    public JuliaDistance(DataBox dataBox, ColorPalette colorPalette, int supersampling) {
+        super(dataBox, colorPalette, supersampling);
+    }
+
+    /**
+     * With an even integer power the Julia set is symmetric about the origin.
+     *
+     * @return the symmetry of the fractal.
+     */
+    @Override
+    protected Symmetry getSymmetry() {
+        Complex power = dataBox.getPower();
+        return (power.getImag() == 0) && (power.getReal() % 2 == 0) ? Symmetry.ORIGIN : Symmetry.NONE;
+    }
+
+    /**
+     * The orbit of the Julia set starts at the point.
+     *
+     * @param c the point to be calculated.
+     * @return the starting z.
+     */
+    @Override
+    protected Complex getStartZ(Complex c) {
+        return c;
+    }
+
+    /**
+     * The derivative with respect to the starting point starts at 1.
+     *
+     * @return the starting dz.
+     */
+    @Override
+    protected Complex getStartDz() {
+        return new Complex(1, 0);
+    }
+
+    /**
+     * The constant of the Julia set is the one of the DataBox.
+     *
+     * @param c the point to be calculated.
+     * @return the constant of the iterations of c.
+     */
+    @Override
+    protected Complex getC(Complex c) {
+        return dataBox.getConstant();
+    }
+
+    /**
+     * The constant does not depend on the point, so its derivative is 0.
+     *
+     * @return the derivative of the constant.
+     */
+    @Override
+    protected Complex getDc() {
+        return new Complex(0, 0);
+    }
+
+}
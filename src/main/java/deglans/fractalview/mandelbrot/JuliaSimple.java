@@ -20,15 +20,10 @@ import javafx.scene.paint.Color;
  *
  * http://mcgoodwin.net/julia/juliajewels.html
  *
- * @version 0.12
+ * @version 0.15
  * @author Deglans Dalpasso
  */
-public class JuliaSimple extends MandelbrotBase {
-
-    /**
-     * The data of this fractal instance.
-     */
-    protected final DataBox dataBox;
+public class JuliaSimple extends EscapeTimeBase {
 
     /**
      * The color palette of this fractal instance.
@@ -43,8 +38,7 @@ public class JuliaSimple extends MandelbrotBase {
      * @param hue if true, use a HUE palette, else use the default color palette.
      */
     public JuliaSimple(DataBox dataBox, boolean hue) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = new ColorPalette(this.dataBox.getMaxIterations(), hue);
     }
 
@@ -55,27 +49,67 @@ public class JuliaSimple extends MandelbrotBase {
      * @param colorPalette the palette of this fractal instance.
      */
     public JuliaSimple(DataBox dataBox, ColorPalette colorPalette) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = colorPalette;
     }
 
     /**
-     * Calculate the color of c through the escape-time algorithm.
+     * The orbits of the Julia fractals start from z = c.
+     *
+     * @param c the point to be calculated.
+     * @return the initial orbit of c.
+     */
+    @Override
+    protected Orbit startOrbit(Complex c) {
+        return new Orbit(new Complex(c), 0);
+    }
+
+    /**
+     * Continue the escape-time algorithm until the orbit escapes or reaches maxIterations.
      *
      * @param c the point to be calculated.
-     * @return the color of c.
+     * @param orbit the orbit of c, updated with the new state.
+     * @param maxIterations the maximum number of iterations.
      */
     @Override
-    protected Color calcPoint(Complex c) {
-        Complex z = new Complex(c);
-        int count = 0;
+    protected void iterate(Complex c, Orbit orbit, int maxIterations) {
+        Complex z = orbit.getZ();
+        int count = orbit.getCount();
 
-        while ((count < dataBox.getMaxIterations()) && (z.mod() < Math.max(2, c.mod()))) {
+        while ((count < maxIterations) && (z.mod() < Math.max(2, c.mod()))) {
             z = z.pow(dataBox.getPower()).plus(dataBox.getConstant());
             count++;
         }
 
+        orbit.set(z, count);
+    }
+
+    /**
+     * With an even integer power the Julia set is symmetric about the origin,
+     * with a real power and a real constant it is symmetric about the real axis.
+     *
+     * @return the symmetry of the fractal.
+     */
+    @Override
+    protected Symmetry getSymmetry() {
+        Complex power = dataBox.getPower();
+        if ((power.getImag() == 0) && (power.getReal() % 2 == 0)) {
+            return Symmetry.ORIGIN;
+        }
+        if ((power.getImag() == 0) && (dataBox.getConstant().getImag() == 0)) {
+            return Symmetry.CONJUGATE;
+        }
+        return Symmetry.NONE;
+    }
+
+    /**
+     * Return the color associated with a number of iterations.
+     *
+     * @param count the number of iterations.
+     * @return the color of count.
+     */
+    @Override
+    protected Color getColor(int count) {
         return colorPalette.getColor(count);
     }
 
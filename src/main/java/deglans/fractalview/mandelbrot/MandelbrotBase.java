@@ -11,12 +11,16 @@
 package deglans.fractalview.mandelbrot;
 
 import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.ColorPalette;
 import deglans.fractalview.utility.Complex;
+import deglans.fractalview.utility.ProgressMeter;
+import deglans.fractalview.utility.RenderScheduler;
+import deglans.fractalview.utility.RenderSurface;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.IntStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import javafx.concurrent.Task;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.util.Callback;
@@ -27,11 +31,53 @@ import javafx.util.Callback;
  * multi-threading.
  * The instances create by this class are "one shot" and can't be reused.
  *
- * @version 0.12
+ * @version 0.33
  * @author Deglans Dalpasso
  */
 public abstract class MandelbrotBase extends Task<Long> implements Callable<Long> {
 
+    /**
+     * Number of iterations of the pixels of the fractals that are not escape-time.
+     */
+    public static final int NO_ITERATIONS = -1;
+
+    /**
+     * Default difference of iterations between neighbors that marks an edge.
+     */
+    public static final int DEFAULT_ANTIALIASING_THRESHOLD = 2;
+
+    /**
+     * Maximum distance (in pixels) of the symmetry axis from a pixel (or half pixel)
+     * position for mirror the pixels.
+     */
+    public static final double SYMMETRY_TOLERANCE = 1e-3;
+
+    /**
+     * The symmetries of a fractal that can be used for mirror the pixels.
+     */
+    public enum Symmetry {
+
+        /**
+         * No symmetry.
+         */
+        NONE,
+
+        /**
+         * Symmetric about the real axis: f(conj(z)) = conj(f(z)).
+         */
+        CONJUGATE,
+
+        /**
+         * Symmetric about the origin: z and -z have the same behavior.
+         */
+        ORIGIN
+    }
+
+    /**
+     * The data of this fractal instance.
+     */
+    protected final DataBox dataBox;
+
     /**
      * The CartesianPlane for conversion between CanvasPoint and Complex coordinate.
      */
@@ -47,15 +93,86 @@ public abstract class MandelbrotBase extends Task<Long> implements Callable<Long
      */
     private Callback onFinish = null;
 
+    /**
+     * Number of samples per side for the edge pixels (0 or 1 for no anti-aliasing).
+     */
+    private int supersampling = 0;
+
+    /**
+     * Difference of iterations between neighbors that marks an edge.
+     */
+    private int threshold = DEFAULT_ANTIALIASING_THRESHOLD;
+
+    /**
+     * Number of samples added by the anti-aliasing.
+     */
+    private final AtomicLong extraSamples = new AtomicLong(0);
+
+    /**
+     * If true keep the state of the pixels for the incremental deepening.
+     */
+    private boolean deepening = false;
+
+    /**
+     * The state of a previous rendering (eventually null).
+     */
+    private IterationState previousState = null;
+
+    /**
+     * The state of the pixels after this rendering.
+     */
+    private IterationState iterationState = null;
+
+    /**
+     * The cache of the tiles (eventually null).
+     */
+    private TileCache tileCache = null;
+
+    /**
+     * The RenderScheduler of the loops (null for the default one).
+     */
+    private RenderScheduler scheduler = null;
+
+    /**
+     * The priority of the calculus in the RenderScheduler.
+     */
+    private RenderScheduler.Priority priority = RenderScheduler.Priority.FOREGROUND;
+
+    /**
+     * The display surface that receives the colors (eventually null).
+     */
+    private RenderSurface surface = null;
+
+    /**
+     * The display surface written by this rendering (null if it is not used).
+     */
+    private RenderSurface target = null;
+
+    /**
+     * The generation of this rendering in the target surface.
+     */
+    private long generation = 0;
+
+    /**
+     * Counter of the pixels done by the passes.
+     */
+    private final ProgressMeter progress = new ProgressMeter(0);
+
+    /**
+     * This fractal if it is escape-time, else null.
+     */
+    private final EscapeTimeBase escapeTime;
+
     /**
      * Create a new instance for one fractal calculus.
      *
-     * @param plane the CartesianPlane for conversion between CanvasPoint and Complex coordinate.
-     * @param image the result of the calculus.
+     * @param dataBox the data of this fractal instance.
      */
-    public MandelbrotBase(CartesianPlane plane, WritableImage image) {
-        this.plane = plane;
-        this.image = image;
+    public MandelbrotBase(DataBox dataBox) {
+        this.dataBox = dataBox;
+        this.plane = dataBox.getCartesianPlane();
+        this.image = dataBox.getImage();
+        this.escapeTime = (this instanceof EscapeTimeBase) ? (EscapeTimeBase) this : null;
     }
 
     /**
@@ -70,6 +187,126 @@ public abstract class MandelbrotBase extends Task<Long> implements Callable<Long
         this.onFinish = onFinish;
     }
 
+    /**
+     * Enable the edge-adaptive anti-aliasing (only for escape-time fractals).
+     * After the first pass only the pixels whose number of iterations differ
+     * from their neighbors by more than the threshold are supersampled.
+     *
+     * @param supersampling number of samples per side for the edge pixels (0 or 1 for none).
+     * @param threshold difference of iterations between neighbors that marks an edge.
+     */
+    public void setAntialiasing(int supersampling, int threshold) {
+        this.supersampling = supersampling;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Enable the incremental deepening.
+     * If the previous state comes from the same fractal and view, the pixels
+     * that reached its maxIterations are continued from their last z
+     * and the others are taken from its counts without compute.
+     *
+     * @param previous the state of a previous rendering (eventually null).
+     */
+    public void setIterationState(IterationState previous) {
+        this.deepening = true;
+        this.previousState = previous;
+    }
+
+    /**
+     * Set the display surface that receives the colors instead of the image.
+     * It is used only if it has the size of the view.
+     * The colors are written straight into its raster as a new generation and
+     * published as dirty; the rendering stops writing the raster as soon as
+     * a newer one has begun.
+     *
+     * @param surface the display surface (null for write the image).
+     */
+    public void setSurface(RenderSurface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Set the RenderScheduler that runs the loops of the calculus.
+     *
+     * @param scheduler the scheduler (null for the default one).
+     */
+    public void setScheduler(RenderScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Return the RenderScheduler that runs the loops of the calculus.
+     *
+     * @return the scheduler given by setScheduler() or the default one.
+     */
+    public RenderScheduler getScheduler() {
+        return (scheduler != null) ? scheduler : RenderScheduler.getDefault();
+    }
+
+    /**
+     * Set the priority of the calculus in the RenderScheduler.
+     *
+     * @param priority the priority of the calculus (default FOREGROUND).
+     */
+    public void setPriority(RenderScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Return the priority of the calculus in the RenderScheduler.
+     *
+     * @return the priority of the calculus.
+     */
+    public RenderScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the cache of the tiles, used only by the resumable escape-time fractals.
+     * They are calculated by tiles aligned to a grid of the complex plane and
+     * the tiles already in the cache are not calculated again. The view is
+     * quantized to the pixels of the grid (a shift of less than half pixel)
+     * and the symmetry axes fall exactly on the grid, so the tiles entirely
+     * in the mirrored part of the view are not calculated.
+     *
+     * @param tileCache the cache of the tiles (null for no cache).
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Return the state of the pixels after this rendering, to be passed
+     * to the next rendering.
+     * If maxIterations is not increased the previous state is kept because
+     * it holds more information.
+     *
+     * @return the state of the pixels or null if not available.
+     */
+    public IterationState getIterationState() {
+        return iterationState;
+    }
+
+    /**
+     * Return the ProgressMeter of this rendering, that counts the pixels done
+     * by the passes (the anti-aliasing pass counts every pixel again).
+     *
+     * @return the ProgressMeter of this rendering.
+     */
+    public ProgressMeter getProgressMeter() {
+        return progress;
+    }
+
+    /**
+     * Return the number of samples added by the anti-aliasing.
+     *
+     * @return the number of samples added by the anti-aliasing.
+     */
+    public long getExtraSamples() {
+        return extraSamples.get();
+    }
+
     /**
      * Function for calculate the fractal.
      *
@@ -80,37 +317,533 @@ public abstract class MandelbrotBase extends Task<Long> implements Callable<Long
     public Long call() throws Exception {
         long startTime = System.currentTimeMillis();
 
-        // Use a stream for the y loop
-        IntStream yStream = IntStream.range(0, (int)plane.getHeight()).parallel();
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+
+        // Progress in pixels, sampled at a fixed rate
+        progress.setTotal((supersampling > 1) ? 2L * width * height : (long) width * height);
+        ScheduledFuture<?> sampling = progress.sample(meter -> {
+            updateProgress(meter.getDone(), meter.getTotal());
+        });
+
+        final int[] pixels;
+        try {
+            pixels = render();
+        }
+        finally {
+            sampling.cancel(false);
+        }
+        if (!isCancelled()) {
+            updateProgress(progress.getDone(), progress.getTotal());
+        }
+
+        // The surface is already published by rows and tiles
+        if (!isCancelled() && (target == null)) {
+            synchronized (image) {
+                image.getPixelWriter().setPixels(0, 0, width, height,
+                        PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            }
+        }
 
-        // Counter for the progress bar
-        final AtomicInteger progress = new AtomicInteger(0);
-        PixelWriter pixelWriter = image.getPixelWriter();
+        // if set use the onFinish callback function
+        if (onFinish != null) {
+            onFinish.call(null);
+        }
 
-        yStream.forEach((int y) -> {
-            Color c;
-            for (int x = 0; x < plane.getWidth(); x++) {
-                if (isCancelled()) {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Calculate the colors of the view, without write the image.
+     *
+     * @return the color of every pixel in ARGB format (the raster of the
+     * RenderSurface if it is used).
+     */
+    int[] render() {
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+        final boolean antialiasing = supersampling > 1;
+
+        // Color of every pixel, the number of iterations only for the anti-aliasing
+        if ((surface != null) && (surface.getWidth() == width) && (surface.getHeight() == height)) {
+            target = surface;
+            generation = target.begin();
+        }
+        final int[] pixels = (target != null) ? target.getRaster() : new int[width * height];
+        final int[] iterations = antialiasing ? new int[width * height] : null;
+
+        // The view is quantized to the pixels of the grid of the tiles
+        final boolean resumable = (escapeTime != null) && escapeTime.isResumable();
+        final boolean tiled = (tileCache != null) && resumable;
+        final double scale = tiled ? TileCache.getGridScale(plane.getScale()) : plane.getScale();
+        final long offsetX = Math.round(plane.getUpLeft().getReal() * scale);
+        final long offsetY = Math.round(-plane.getUpLeft().getImag() * scale);
+        final Complex origin = tiled ? new Complex(offsetX / scale, -offsetY / scale) : plane.getUpLeft();
+
+        // Pixels that are the mirror of other pixels are copied at the end of the first pass
+        final Symmetry symmetry = getSymmetry();
+        final int axisY = (symmetry != Symmetry.NONE) ?
+                getMirrorAxis(tiled ? -offsetY : plane.getUpLeft().getImag() * scale) : -1;
+        final int axisX = (symmetry == Symmetry.ORIGIN) ?
+                getMirrorAxis(tiled ? -offsetX : -plane.getUpLeft().getReal() * scale) : -1;
+        final boolean mirror = (symmetry == Symmetry.CONJUGATE) ? (axisY >= 0) :
+                (symmetry == Symmetry.ORIGIN) && (axisY >= 0) && (axisX >= 0);
+
+        // Tiles that intersect the view
+        final long tileX = Math.floorDiv(offsetX, TileCache.TILE_SIZE);
+        final long tileY = Math.floorDiv(offsetY, TileCache.TILE_SIZE);
+        final int columns = (int) (Math.floorDiv(offsetX + width - 1, TileCache.TILE_SIZE) - tileX + 1);
+        final int rows = (int) (Math.floorDiv(offsetY + height - 1, TileCache.TILE_SIZE) - tileY + 1);
+
+        // The previous state is used only for the same fractal and view
+        final int maxIterations = dataBox.getMaxIterations();
+        final IterationState previous = deepening && (previousState != null)
+                && previousState.isCompatible(this, dataBox) ? previousState : null;
+        final IterationState current = deepening && resumable
+                && ((previous == null) || (maxIterations > previous.getMaxIterations())) ?
+                new IterationState(this, dataBox) : null;
+
+        if (tiled) {
+            getScheduler().parallelFor(columns * rows, priority, (int t) -> {
+                if (isStale()) {
+                    return;
+                }
+                long tx = tileX + t % columns;
+                long ty = tileY + t / columns;
+                if (mirror && isMirrored(symmetry, axisX, axisY, tx, ty, offsetX, offsetY)) {
+                    progress.add(getVisibleArea(tx, ty, offsetX, offsetY));
+                    return;
+                }
+                calcTile(symmetry, axisX, axisY, mirror, tx, ty, scale, offsetX, offsetY,
+                        iterations, pixels, previous, current);
+            });
+        }
+        else {
+            calcPixels(symmetry, axisX, axisY, mirror, iterations, pixels, previous, current);
+        }
+        if (mirror && !isStale()) {
+            mirrorPixels(symmetry, axisX, axisY, iterations, pixels, current);
+        }
+
+        if (antialiasing && !isStale()) {
+            // isEdge() reads only the iterations, so the pixels can be written in place
+            getScheduler().parallelFor(height, priority, (int y) -> {
+                for (int x = 0; x < width; x++) {
+                    if (isStale()) {
+                        return;
+                    }
+                    if (isEdge(iterations, width, height, x, y)) {
+                        pixels[y * width + x] = calcPixelSS(origin, scale, x, y);
+                    }
+                }
+                publish(0, y, width, 1);
+                progress.add(width);
+            });
+        }
+
+        if (!isCancelled() && deepening) {
+            if (current != null) {
+                current.pack();
+            }
+            iterationState = (current != null) ? current : previous;
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Calculate the first pass pixel by pixel, skipping the pixels
+     * that are mirrored at the end (see mirrorPixels()).
+     *
+     * @param symmetry the symmetry of the fractal.
+     * @param axisX the doubled position of the imaginary axis.
+     * @param axisY the doubled position of the real axis.
+     * @param mirror true if the pixels are mirrored.
+     * @param iterations the number of iterations of every pixel (eventually null).
+     * @param pixels the color of every pixel in ARGB format.
+     * @param previous the state of a previous rendering (eventually null).
+     * @param current the state to fill (eventually null).
+     */
+    private void calcPixels(Symmetry symmetry, int axisX, int axisY, boolean mirror,
+            int[] iterations, int[] pixels, IterationState previous, IterationState current) {
+
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+
+        getScheduler().parallelFor(height, priority, (int y) -> {
+            for (int x = 0; x < width; x++) {
+                if (isStale()) {
                     return;
                 }
-                // Calculate the point and draw it
-                c = calcPoint(plane.toComplex(x, y));
-                synchronized (pixelWriter) {
-                    pixelWriter.setColor(x, y, c);
+                if (mirror && (getMirror(symmetry, axisX, axisY, width, height, x, y) >= 0)) {
+                    continue;
                 }
+                // Calculate the point
+                Complex c = plane.toComplex(x, y);
+                int count = (escapeTime != null) ? calcIterations(c, y * width + x, previous, current)
+                        : NO_ITERATIONS;
+                Color color = (escapeTime != null) ? escapeTime.getColor(count) : calcPoint(c);
+                if (iterations != null) {
+                    iterations[y * width + x] = count;
+                }
+                pixels[y * width + x] = ColorPalette.toArgb(color);
             }
-            if (isCancelled()) {
+            publish(0, y, width, 1);
+            progress.add(width);
+        });
+    }
+
+    /**
+     * Copy the pixels of the mirrored part of the view from their mirror.
+     *
+     * @param symmetry the symmetry of the fractal.
+     * @param axisX the doubled position of the imaginary axis.
+     * @param axisY the doubled position of the real axis.
+     * @param iterations the number of iterations of every pixel (eventually null).
+     * @param pixels the color of every pixel in ARGB format.
+     * @param current the state to fill (eventually null).
+     */
+    private void mirrorPixels(Symmetry symmetry, int axisX, int axisY, int[] iterations,
+            int[] pixels, IterationState current) {
+
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+
+        getScheduler().parallelFor(height, priority, (int y) -> {
+            if (isStale()) {
                 return;
             }
-            updateProgress(progress.incrementAndGet(), plane.getHeight());
+            int x0 = width, x1 = 0;
+            for (int x = 0; x < width; x++) {
+                int source = getMirror(symmetry, axisX, axisY, width, height, x, y);
+                if (source >= 0) {
+                    if (iterations != null) {
+                        iterations[y * width + x] = iterations[source];
+                    }
+                    pixels[y * width + x] = pixels[source];
+                    if (current != null) {
+                        current.setCount(y * width + x, current.getCount(source));
+                    }
+                    x0 = Math.min(x0, x);
+                    x1 = x + 1;
+                }
+            }
+            if (x0 < x1) {
+                publish(x0, y, x1 - x0, 1);
+            }
         });
+    }
 
-        // if set use the onFinish callback function
-        if (onFinish != null) {
-            onFinish.call(null);
+    /**
+     * Check if all the pixels of a tile inside the view are mirrored
+     * (see mirrorPixels()), so that the tile is not calculated.
+     *
+     * @param symmetry the symmetry of the fractal.
+     * @param axisX the doubled position of the imaginary axis.
+     * @param axisY the doubled position of the real axis.
+     * @param tx the column of the tile.
+     * @param ty the row of the tile.
+     * @param offsetX the column of the grid of the first pixel of the view.
+     * @param offsetY the row of the grid of the first pixel of the view.
+     * @return true if the tile is entirely mirrored.
+     */
+    private boolean isMirrored(Symmetry symmetry, int axisX, int axisY, long tx, long ty,
+            long offsetX, long offsetY) {
+
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+        final int size = TileCache.TILE_SIZE;
+
+        int x0 = (int) Math.max(0, tx * size - offsetX);
+        int y0 = (int) Math.max(0, ty * size - offsetY);
+        int x1 = (int) Math.min(width, tx * size + size - offsetX);
+        int y1 = (int) Math.min(height, ty * size + size - offsetY);
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                if (getMirror(symmetry, axisX, axisY, width, height, x, y) < 0) {
+                    return false;
+                }
+            }
         }
+        return true;
+    }
 
-        return System.currentTimeMillis() - startTime;
+    /**
+     * Return the number of pixels of a tile inside the view.
+     *
+     * @param tx the column of the tile.
+     * @param ty the row of the tile.
+     * @param offsetX the column of the grid of the first pixel of the view.
+     * @param offsetY the row of the grid of the first pixel of the view.
+     * @return the number of pixels.
+     */
+    private long getVisibleArea(long tx, long ty, long offsetX, long offsetY) {
+        final int size = TileCache.TILE_SIZE;
+        long x0 = Math.max(0, tx * size - offsetX);
+        long y0 = Math.max(0, ty * size - offsetY);
+        long x1 = Math.min((long) plane.getWidth(), tx * size + size - offsetX);
+        long y1 = Math.min((long) plane.getHeight(), ty * size + size - offsetY);
+        return (x1 - x0) * (y1 - y0);
+    }
+
+    /**
+     * Calculate the pixels of a tile that are inside the view, taking the
+     * number of iterations from the TileCache or calculating the whole tile
+     * and adding it to the cache.
+     * The points are calculated from the grid, so that a tile gives the same
+     * result in every view.
+     * With a previous state only the pixels inside the view and not mirrored
+     * are calculated, the others would start from z = 0, so a partial tile
+     * is not cached.
+     *
+     * @param symmetry the symmetry of the fractal.
+     * @param axisX the doubled position of the imaginary axis.
+     * @param axisY the doubled position of the real axis.
+     * @param mirror true if the pixels are mirrored.
+     * @param tx the column of the tile.
+     * @param ty the row of the tile.
+     * @param scale the scale of the grid (see TileCache.getGridScale()).
+     * @param offsetX the column of the grid of the first pixel of the view.
+     * @param offsetY the row of the grid of the first pixel of the view.
+     * @param iterations the number of iterations of every pixel (eventually null).
+     * @param pixels the color of every pixel in ARGB format.
+     * @param previous the state of a previous rendering (eventually null).
+     * @param current the state to fill (eventually null).
+     */
+    private void calcTile(Symmetry symmetry, int axisX, int axisY, boolean mirror,
+            long tx, long ty, double scale, long offsetX, long offsetY,
+            int[] iterations, int[] pixels, IterationState previous, IterationState current) {
+
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+        final int size = TileCache.TILE_SIZE;
+
+        TileCache.Key key = new TileCache.Key(this, dataBox, scale, tx, ty);
+        int[] tile = tileCache.get(key);
+        final boolean cached = tile != null;
+        if (!cached) {
+            tile = new int[size * size];
+        }
+        boolean complete = true;
+
+        for (int j = 0; j < size; j++) {
+            for (int i = 0; i < size; i++) {
+                if (isStale()) {
+                    return;
+                }
+                long gx = tx * size + i;
+                long gy = ty * size + j;
+                int x = (int) (gx - offsetX);
+                int y = (int) (gy - offsetY);
+                boolean inside = (x >= 0) && (x < width) && (y >= 0) && (y < height);
+
+                if (!cached) {
+                    boolean mirrored = mirror && inside
+                            && (getMirror(symmetry, axisX, axisY, width, height, x, y) >= 0);
+                    if ((previous != null) && (!inside || mirrored)) {
+                        complete = false;
+                        continue;
+                    }
+                    Complex c = new Complex(gx / scale, -gy / scale);
+                    tile[j * size + i] = inside ? calcIterations(c, y * width + x, previous, current)
+                            : escapeTime.calcIterations(c);
+                }
+                else if (inside && (current != null)) {
+                    current.setCount(y * width + x, tile[j * size + i]);
+                }
+
+                if (inside) {
+                    if (iterations != null) {
+                        iterations[y * width + x] = tile[j * size + i];
+                    }
+                    pixels[y * width + x] = ColorPalette.toArgb(escapeTime.getColor(tile[j * size + i]));
+                }
+            }
+        }
+
+        if (!cached && complete) {
+            tileCache.put(key, tile);
+        }
+
+        // The part of the tile inside the view
+        int x0 = (int) Math.max(0, tx * size - offsetX);
+        int y0 = (int) Math.max(0, ty * size - offsetY);
+        int x1 = (int) Math.min(width, tx * size + size - offsetX);
+        int y1 = (int) Math.min(height, ty * size + size - offsetY);
+        publish(x0, y0, x1 - x0, y1 - y0);
+        progress.add((long) (x1 - x0) * (y1 - y0));
+    }
+
+    /**
+     * Publish a part of the pixels as dirty in the RenderSurface.
+     * Do nothing if the surface is not set.
+     *
+     * @param x the x coordinate of the part.
+     * @param y the y coordinate of the part.
+     * @param w the width of the part.
+     * @param h the height of the part.
+     */
+    private void publish(int x, int y, int w, int h) {
+        if (!isCancelled() && (target != null)) {
+            target.publish(generation, x, y, w, h);
+        }
+    }
+
+    /**
+     * Check if the rendering must stop writing the pixels: it is cancelled
+     * or a newer rendering has begun on the same RenderSurface.
+     *
+     * @return true if the rendering must stop.
+     */
+    private boolean isStale() {
+        return isCancelled() || ((target != null) && !target.isCurrent(generation));
+    }
+
+    /**
+     * Calculate the number of iterations of a pixel of an escape-time fractal,
+     * continuing or reusing the previous state when possible and saving the new one.
+     *
+     * @param c the point of the pixel.
+     * @param index the index of the pixel (y * width + x).
+     * @param previous the state of a previous rendering (eventually null).
+     * @param current the state to fill (eventually null).
+     * @return the number of iterations of the pixel.
+     */
+    private int calcIterations(Complex c, int index, IterationState previous, IterationState current) {
+        int maxIterations = dataBox.getMaxIterations();
+
+        if (previous != null) {
+            int count = previous.getCount(index);
+            if ((count < previous.getMaxIterations()) || (maxIterations <= previous.getMaxIterations())) {
+                // Escaped before the old limit, or the limit is decreased: no compute
+                if (current != null) {
+                    current.setCount(index, count);
+                }
+                return Math.min(count, maxIterations);
+            }
+            Orbit orbit = previous.getOrbit(index);
+            if (orbit != null) {
+                escapeTime.iterate(c, orbit, maxIterations);
+                current.setOrbit(index, orbit);
+                return orbit.getCount();
+            }
+        }
+
+        if (current != null) {
+            Orbit orbit = escapeTime.startOrbit(c);
+            escapeTime.iterate(c, orbit, maxIterations);
+            current.setOrbit(index, orbit);
+            return orbit.getCount();
+        }
+
+        return escapeTime.calcIterations(c);
+    }
+
+    /**
+     * Return the doubled position of a symmetry axis if it falls on a pixel
+     * or half pixel position, so that every pixel has an exact mirror.
+     *
+     * @param axis the position of the axis in pixels.
+     * @return the doubled position of the axis or -1 if the pixels can not be mirrored.
+     */
+    static int getMirrorAxis(double axis) {
+        double doubled = 2 * axis;
+        long rounded = Math.round(doubled);
+        if ((rounded < 0) || (rounded > Integer.MAX_VALUE)
+                || (Math.abs(doubled - rounded) > 2 * SYMMETRY_TOLERANCE)) {
+            return -1;
+        }
+        return (int) rounded;
+    }
+
+    /**
+     * Return the pixel that is the mirror of (x, y) if (x, y) is in the
+     * mirrored part of the view and its mirror is inside the view.
+     *
+     * @param symmetry the symmetry of the fractal.
+     * @param axisX the doubled position of the imaginary axis.
+     * @param axisY the doubled position of the real axis.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param x the x coordinate of the pixel.
+     * @param y the y coordinate of the pixel.
+     * @return the index of the source pixel or -1 if (x, y) must be calculated.
+     */
+    static int getMirror(Symmetry symmetry, int axisX, int axisY,
+            int width, int height, int x, int y) {
+
+        int my = axisY - y;
+        if ((my < 0) || (my >= height) || (my > y)) {
+            return -1;
+        }
+
+        if (symmetry == Symmetry.CONJUGATE) {
+            return (my < y) ? my * width + x : -1;
+        }
+
+        // Symmetry.ORIGIN, on the center row only the right half is mirrored
+        int mx = axisX - x;
+        if ((mx < 0) || (mx >= width) || ((my == y) && (mx >= x))) {
+            return -1;
+        }
+        return my * width + mx;
+    }
+
+    /**
+     * Check if the number of iterations of a pixel differ from the ones of
+     * its neighbors (up, down, left, right) by more than the threshold.
+     *
+     * @param iterations the number of iterations of every pixel.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param x the x coordinate of the pixel.
+     * @param y the y coordinate of the pixel.
+     * @return true if the pixel is on an edge.
+     */
+    boolean isEdge(int[] iterations, int width, int height, int x, int y) {
+        int count = iterations[y * width + x];
+        if (count == NO_ITERATIONS) {
+            return false;
+        }
+        return ((x > 0) && (Math.abs(count - iterations[y * width + x - 1]) > threshold))
+                || ((x < width - 1) && (Math.abs(count - iterations[y * width + x + 1]) > threshold))
+                || ((y > 0) && (Math.abs(count - iterations[(y - 1) * width + x]) > threshold))
+                || ((y < height - 1) && (Math.abs(count - iterations[(y + 1) * width + x]) > threshold));
+    }
+
+    /**
+     * Calculate the average color of supersampling x supersampling points
+     * at the centers of a uniform grid over the pixel. As for the first pass
+     * the point of the pixel is its center, so the grid is centered on it
+     * and all the points are counted as extra samples.
+     * The points are taken from the same origin and scale of the first pass,
+     * that are quantized to the grid with a TileCache.
+     *
+     * @param origin the point of the pixel (0, 0).
+     * @param scale the scale (pixels per unit).
+     * @param x the x coordinate of the pixel.
+     * @param y the y coordinate of the pixel.
+     * @return the average color of the pixel in ARGB format.
+     */
+    private int calcPixelSS(Complex origin, double scale, int x, int y) {
+        int red = 0, green = 0, blue = 0;
+
+        for (int j = 0; j < supersampling; j++) {
+            for (int i = 0; i < supersampling; i++) {
+                double dx = (i + 0.5) / supersampling - 0.5;
+                double dy = (j + 0.5) / supersampling - 0.5;
+                Complex c = new Complex(origin.getReal() + (x + dx) / scale,
+                        origin.getImag() - (y + dy) / scale);
+                int argb = ColorPalette.toArgb(escapeTime.getColor(escapeTime.calcIterations(c)));
+                red += (argb >> 16) & 0xff;
+                green += (argb >> 8) & 0xff;
+                blue += argb & 0xff;
+            }
+        }
+
+        int n = supersampling * supersampling;
+        extraSamples.addAndGet(n);
+        return 0xff000000 | ((red / n) << 16) | ((green / n) << 8) | (blue / n);
     }
 
     /**
@@ -121,4 +854,17 @@ public abstract class MandelbrotBase extends Task<Long> implements Callable<Long
      */
     protected abstract Color calcPoint(Complex c);
 
+    /**
+     * Return the symmetry of the fractal with the current data.
+     * The fractals with a symmetry must give the same result for a point
+     * and its mirror: if the view straddles the symmetry axis or center,
+     * the first pass calculates only the unique part of the view and mirrors
+     * the other pixels.
+     *
+     * @return the symmetry of the fractal.
+     */
+    protected Symmetry getSymmetry() {
+        return Symmetry.NONE;
+    }
+
 }
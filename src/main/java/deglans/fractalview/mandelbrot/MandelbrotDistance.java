@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.Complex;
+
+/**
+ * MandelbrotDistance colors the Mandelbrot fractals by the estimated distance
+ * to the boundary, so the thin filaments stay visible at normal resolutions.
+ * The derivative follows dz = p * z^(p-1) * dz + 1.
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public class MandelbrotDistance extends DistanceEstimatorBase {
+
+    /**
+     * Create a MandelbrotDistance instance with the given data.
+     *
+     * @param dataBox the data of this fractal instance.
+     * @param colorPalette the palette of this fractal instance.
+     * @param supersampling number of samples per side for the pixels near the boundary.
+     */
+    public MandelbrotDistance(DataBox dataBox, ColorPalette colorPalette, int supersampling) {
+        super(dataBox, colorPalette, supersampling);
+    }
+
+    /**
+     * With a real power the Mandelbrot set is symmetric about the real axis.
+     *
+     * @return the symmetry of the fractal.
+     */
+    @Override
+    protected Symmetry getSymmetry() {
+        return (dataBox.getPower().getImag() == 0) ? Symmetry.CONJUGATE : Symmetry.NONE;
+    }
+
+    /**
+     * The orbit of the Mandelbrot set starts at 0.
+     *
+     * @param c the point to be calculated.
+     * @return the starting z.
+     */
+    @Override
+    protected Complex getStartZ(Complex c) {
+        return new Complex(0, 0);
+    }
+
+    /**
+     * The derivative with respect to c starts at 0.
+     *
+     * @return the starting dz.
+     */
+    @Override
+    protected Complex getStartDz() {
+        return new Complex(0, 0);
+    }
+
+    /**
+     * The constant of the Mandelbrot set is the point.
+     *
+     * @param c the point to be calculated.
+     * @return the constant of the iterations of c.
+     */
+    @Override
+    protected Complex getC(Complex c) {
+        return c;
+    }
+
+    /**
+     * The constant is the point, so its derivative is 1.
+     *
+     * @return the derivative of the constant.
+     */
+    @Override
+    protected Complex getDc() {
+        return new Complex(1, 0);
+    }
+
+}
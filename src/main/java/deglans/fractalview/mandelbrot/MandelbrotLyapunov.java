@@ -25,11 +25,6 @@ import javafx.scene.paint.Color;
  */
 public class MandelbrotLyapunov extends MandelbrotBase {
 
-    /**
-     * The data of this fractal instance.
-     */
-    protected final DataBox dataBox;
-
     /**
      * The color palette of this fractal instance.
      */
@@ -43,8 +38,7 @@ public class MandelbrotLyapunov extends MandelbrotBase {
      * @param hue if true, use a HUE palette, else use the default color palette.
      */
     public MandelbrotLyapunov(DataBox dataBox, boolean hue) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = new ColorPalette(this.dataBox.getMaxIterations(), hue);
     }
 
@@ -55,8 +49,7 @@ public class MandelbrotLyapunov extends MandelbrotBase {
      * @param colorPalette the palette of this fractal instance.
      */
     public MandelbrotLyapunov(DataBox dataBox, ColorPalette colorPalette) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = colorPalette;
     }
 
@@ -22,15 +22,10 @@ import javafx.scene.paint.Color;
  *
  * http://math.stackexchange.com/questions/1257555/how-to-compute-a-negative-multibrot-set
  *
- * @version 0.12
+ * @version 0.15
  * @author Deglans Dalpasso
  */
-public class MandelbrotPeriodic extends MandelbrotBase {
-
-    /**
-     * The data of this fractal instance.
-     */
-    protected final DataBox dataBox;
+public class MandelbrotPeriodic extends EscapeTimeBase {
 
     /**
      * The color palette of this fractal instance.
@@ -45,8 +40,7 @@ public class MandelbrotPeriodic extends MandelbrotBase {
      * @param hue if true, use a HUE palette, else use the default color palette.
      */
     public MandelbrotPeriodic(DataBox dataBox, boolean hue) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = new ColorPalette(this.dataBox.getMaxIterations(), hue);
     }
 
@@ -57,39 +51,83 @@ public class MandelbrotPeriodic extends MandelbrotBase {
      * @param colorPalette the palette of this fractal instance.
      */
     public MandelbrotPeriodic(DataBox dataBox, ColorPalette colorPalette) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = colorPalette;
     }
 
     /**
-     * If the power has a real part positive or equal zero use the escape-time algorithm
-     * else check the periodic behavior algorithm.
+     * Only the escape-time algorithm can be continued, the periodic behavior
+     * check needs the whole orbit.
+     *
+     * @return true if the power has a real part positive or equal zero.
+     */
+    @Override
+    protected boolean isResumable() {
+        return dataBox.getPower().getReal() >= 0;
+    }
+
+    /**
+     * The orbits of the Mandelbrot fractals start from z = 0.
+     *
+     * @param c the point to be calculated.
+     * @return the initial orbit of c.
+     */
+    @Override
+    protected Orbit startOrbit(Complex c) {
+        return new Orbit(new Complex(0, 0), 0);
+    }
+
+    /**
+     * If the power has a real part positive or equal zero continue the escape-time
+     * algorithm until the orbit escapes or reaches maxIterations,
+     * else check the periodic behavior algorithm from the initial orbit.
      *
      * @param c the point to be calculated.
-     * @return the color of c.
+     * @param orbit the orbit of c, updated with the new state.
+     * @param maxIterations the maximum number of iterations.
      */
     @Override
-    protected Color calcPoint(Complex c) {
-        int count = 0;
-        Complex z = new Complex(0, 0);
+    protected void iterate(Complex c, Orbit orbit, int maxIterations) {
+        Complex z = orbit.getZ();
+        int count = orbit.getCount();
 
         if (dataBox.getPower().getReal() < 0) {
             PeriodicBehavior matcher = new PeriodicBehavior(
-                    dataBox.getMaxIterations() > 1000 ? 100 : dataBox.getMaxIterations()/10);
+                    maxIterations > 1000 ? 100 : maxIterations/10);
 
-            while ((count < dataBox.getMaxIterations()) && (!matcher.checkNumber(z))) {
+            while ((count < maxIterations) && (!matcher.checkNumber(z))) {
                 z = z.pow(dataBox.getPower()).plus(c);
                 count++;
             }
         }
         else {
-            while ((count < dataBox.getMaxIterations()) && (z.mod() < 2)) {
+            while ((count < maxIterations) && (z.mod() < 2)) {
                 z = z.pow(dataBox.getPower()).plus(c);
                 count++;
             }
         }
 
+        orbit.set(z, count);
+    }
+
+    /**
+     * With a real power the Mandelbrot set is symmetric about the real axis.
+     *
+     * @return the symmetry of the fractal.
+     */
+    @Override
+    protected Symmetry getSymmetry() {
+        return (dataBox.getPower().getImag() == 0) ? Symmetry.CONJUGATE : Symmetry.NONE;
+    }
+
+    /**
+     * Return the color associated with a number of iterations.
+     *
+     * @param count the number of iterations.
+     * @return the color of count.
+     */
+    @Override
+    protected Color getColor(int count) {
         return colorPalette.getColor(count);
     }
 
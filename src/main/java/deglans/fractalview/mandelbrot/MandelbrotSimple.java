@@ -18,15 +18,10 @@ import javafx.scene.paint.Color;
  * MandelbrotSimple is the most simple way to calculate the Mandelbrot fractals.
  * MandelbrotSimple use the escape-time algorithm and a simple color palette.
  *
- * @version 0.12
+ * @version 0.15
  * @author Deglans Dalpasso
  */
-public class MandelbrotSimple extends MandelbrotBase {
-
-    /**
-     * The data of this fractal instance.
-     */
-    protected final DataBox dataBox;
+public class MandelbrotSimple extends EscapeTimeBase {
 
     /**
      * The color palette of this fractal instance.
@@ -41,8 +36,7 @@ public class MandelbrotSimple extends MandelbrotBase {
      * @param hue if true, use a HUE palette, else use the default color palette.
      */
     public MandelbrotSimple(DataBox dataBox, boolean hue) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = new ColorPalette(this.dataBox.getMaxIterations(), hue);
     }
 
@@ -53,27 +47,59 @@ public class MandelbrotSimple extends MandelbrotBase {
      * @param colorPalette the palette of this fractal instance.
      */
     public MandelbrotSimple(DataBox dataBox, ColorPalette colorPalette) {
-        super(dataBox.getCartesianPlane(), dataBox.getImage());
-        this.dataBox = dataBox;
+        super(dataBox);
         this.colorPalette = colorPalette;
     }
 
     /**
-     * Calculate the color of c through the escape-time algorithm.
+     * The orbits of the Mandelbrot fractals start from z = 0.
      *
      * @param c the point to be calculated.
-     * @return the color of c.
+     * @return the initial orbit of c.
      */
     @Override
-    protected Color calcPoint(Complex c) {
-        int count = 0;
-        Complex z = new Complex(0, 0);
+    protected Orbit startOrbit(Complex c) {
+        return new Orbit(new Complex(0, 0), 0);
+    }
 
-        while ((count < dataBox.getMaxIterations()) && (z.mod() < 2)) {
+    /**
+     * Continue the escape-time algorithm until the orbit escapes or reaches maxIterations.
+     *
+     * @param c the point to be calculated.
+     * @param orbit the orbit of c, updated with the new state.
+     * @param maxIterations the maximum number of iterations.
+     */
+    @Override
+    protected void iterate(Complex c, Orbit orbit, int maxIterations) {
+        Complex z = orbit.getZ();
+        int count = orbit.getCount();
+
+        while ((count < maxIterations) && (z.mod() < 2)) {
             z = z.pow(dataBox.getPower()).plus(c);
             count++;
         }
 
+        orbit.set(z, count);
+    }
+
+    /**
+     * With a real power the Mandelbrot set is symmetric about the real axis.
+     *
+     * @return the symmetry of the fractal.
+     */
+    @Override
+    protected Symmetry getSymmetry() {
+        return (dataBox.getPower().getImag() == 0) ? Symmetry.CONJUGATE : Symmetry.NONE;
+    }
+
+    /**
+     * Return the color associated with a number of iterations.
+     *
+     * @param count the number of iterations.
+     * @return the color of count.
+     */
+    @Override
+    protected Color getColor(int count) {
         return colorPalette.getColor(count);
     }
 
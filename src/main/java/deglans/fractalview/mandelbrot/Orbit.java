@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.Complex;
+
+/**
+ * Orbit is the state of the escape-time algorithm for a point:
+ * the last value of z and the number of iterations done.
+ * It allows to continue the iterations from where they stopped.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class Orbit {
+
+    /**
+     * The last value of z.
+     */
+    private Complex z;
+
+    /**
+     * The number of iterations done.
+     */
+    private int count;
+
+    /**
+     * Create an Orbit with the given state.
+     *
+     * @param z the last value of z.
+     * @param count the number of iterations done.
+     */
+    public Orbit(Complex z, int count) {
+        this.z = z;
+        this.count = count;
+    }
+
+    /**
+     * Update the state of the orbit.
+     *
+     * @param z the last value of z.
+     * @param count the number of iterations done.
+     */
+    public void set(Complex z, int count) {
+        this.z = z;
+        this.count = count;
+    }
+
+    /**
+     * Return the last value of z.
+     *
+     * @return the last value of z.
+     */
+    public Complex getZ() {
+        return z;
+    }
+
+    /**
+     * Return the number of iterations done.
+     *
+     * @return the number of iterations done.
+     */
+    public int getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.Complex;
+import javafx.scene.paint.Color;
+import javafx.util.Callback;
+
+/**
+ * PreviewSampler calculates single points of a fractal, for the previews
+ * drawn by the GUI while the user moves the view.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class PreviewSampler implements Callback<Complex, Color> {
+
+    /**
+     * The fractal used for calculate the points.
+     */
+    private final MandelbrotBase kernel;
+
+    /**
+     * Create a PreviewSampler for the given fractal.
+     *
+     * @param selectedFractal the selected fractal (see FractalFactory).
+     * @param dataBox the data of the fractal (the image is not used).
+     * @param colorPalette the color palette.
+     */
+    public PreviewSampler(String selectedFractal, DataBox dataBox, ColorPalette colorPalette) {
+        kernel = FractalFactory.bulidFractal(selectedFractal, dataBox, colorPalette);
+    }
+
+    /**
+     * Calculate the color of a point.
+     *
+     * @param c the point to be calculate.
+     * @return the color of the point.
+     */
+    @Override
+    public Color call(Complex c) {
+        return kernel.calcPoint(c);
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.RenderScheduler;
+import deglans.fractalview.utility.RenderSurface;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.concurrent.Task;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.util.Callback;
+
+/**
+ * ProgressiveRender is a stochastic anti-aliasing for the publication renders.
+ * Every pass adds one randomly jittered sample to each pixel that is not
+ * converged yet, a pixel is converged when the variance of its mean
+ * luminance falls below a threshold.
+ * The image is updated after every pass, so the rendering can be stopped
+ * at any time.
+ * The fractal is calculated by the same kernels made by FractalFactory, with
+ * the RenderScheduler and the priority of the kernel (see setScheduler() and
+ * setPriority()).
+ *
+ * With a RenderSurface (see setSurface()) the colors are written straight
+ * into its raster as a new generation and published as dirty after every
+ * pass, so the JavaFX thread copies them into the image; without it the
+ * image is written by the calculus thread and must not be shown during
+ * the rendering.
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public class ProgressiveRender extends Task<Long> {
+
+    /**
+     * Default maximum number of passes.
+     */
+    public static final int DEFAULT_MAX_PASSES = 256;
+
+    /**
+     * Default threshold for the variance of the mean luminance (one color level).
+     */
+    public static final double DEFAULT_THRESHOLD = (1.0 / 255) * (1.0 / 255);
+
+    /**
+     * Minimum number of samples before check the convergence of a pixel.
+     */
+    public static final int MIN_SAMPLES = 4;
+
+    /**
+     * The kernel used to calculate the points.
+     */
+    private final MandelbrotBase kernel;
+
+    /**
+     * The CartesianPlane for conversion between CanvasPoint and Complex coordinate.
+     */
+    private final CartesianPlane plane;
+
+    /**
+     * The result of the calculus.
+     */
+    private final WritableImage image;
+
+    /**
+     * Maximum number of passes.
+     */
+    private final int maxPasses;
+
+    /**
+     * Threshold for the variance of the mean luminance.
+     */
+    private final double threshold;
+
+    /**
+     * The Callback function called after every pass with the number of the pass.
+     */
+    private Callback<Integer, Void> onPass = null;
+
+    /**
+     * Number of pixels not converged after the last pass.
+     */
+    private volatile int activePixels;
+
+    /**
+     * The display surface that receives the colors (eventually null).
+     */
+    private RenderSurface surface = null;
+
+    /**
+     * Create a ProgressiveRender instance with the default passes and threshold.
+     *
+     * @param selectedFractal the selected fractal (see FractalFactory).
+     * @param dataBox the data for calculate the fractal.
+     * @param colorPalette the colors for the fractal.
+     */
+    public ProgressiveRender(String selectedFractal, DataBox dataBox, ColorPalette colorPalette) {
+        this(selectedFractal, dataBox, colorPalette, DEFAULT_MAX_PASSES, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Create a ProgressiveRender instance with the given data.
+     *
+     * @param selectedFractal the selected fractal (see FractalFactory).
+     * @param dataBox the data for calculate the fractal.
+     * @param colorPalette the colors for the fractal.
+     * @param maxPasses maximum number of passes.
+     * @param threshold threshold for the variance of the mean luminance.
+     */
+    public ProgressiveRender(String selectedFractal, DataBox dataBox, ColorPalette colorPalette,
+            int maxPasses, double threshold) {
+
+        this.kernel = FractalFactory.bulidFractal(selectedFractal, dataBox, colorPalette);
+        this.plane = dataBox.getCartesianPlane();
+        this.image = dataBox.getImage();
+        this.maxPasses = maxPasses;
+        this.threshold = threshold;
+        this.activePixels = (int) plane.getWidth() * (int) plane.getHeight();
+    }
+
+    /**
+     * Set the Callback function called after every pass.
+     *
+     * @param onPass the function to be call with the number of the pass.
+     */
+    public void setOnPass(Callback<Integer, Void> onPass) {
+        this.onPass = onPass;
+    }
+
+    /**
+     * Set the display surface that receives the colors instead of the image.
+     * It is used only if it has the size of the view.
+     *
+     * @param surface the display surface (null for write the image).
+     */
+    public void setSurface(RenderSurface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Set the RenderScheduler that runs the passes.
+     *
+     * @param scheduler the scheduler (null for the default one).
+     */
+    public void setScheduler(RenderScheduler scheduler) {
+        kernel.setScheduler(scheduler);
+    }
+
+    /**
+     * Return the RenderScheduler that runs the passes.
+     *
+     * @return the scheduler of the kernel.
+     */
+    public RenderScheduler getScheduler() {
+        return kernel.getScheduler();
+    }
+
+    /**
+     * Set the priority of the passes in the RenderScheduler.
+     *
+     * @param priority the priority of the passes (default FOREGROUND).
+     */
+    public void setPriority(RenderScheduler.Priority priority) {
+        kernel.setPriority(priority);
+    }
+
+    /**
+     * Return the number of pixels not converged after the last pass.
+     *
+     * @return the number of pixels not converged.
+     */
+    public int getActivePixels() {
+        return activePixels;
+    }
+
+    /**
+     * Function for calculate the fractal pass after pass.
+     *
+     * @return the time taken for the calculus in milliseconds.
+     * @throws Exception
+     */
+    @Override
+    protected Long call() throws Exception {
+        long startTime = System.currentTimeMillis();
+
+        final int width = (int) plane.getWidth();
+        final int height = (int) plane.getHeight();
+
+        // Running mean of the channels and running variance of the luminance
+        final int[] samples = new int[width * height];
+        final float[] red = new float[width * height];
+        final float[] green = new float[width * height];
+        final float[] blue = new float[width * height];
+        final float[] luminance = new float[width * height];
+        final float[] m2 = new float[width * height];
+
+        // The colors are written in the raster of the surface or in an own array
+        final RenderSurface target = (surface != null) && (surface.getWidth() == width)
+                && (surface.getHeight() == height) ? surface : null;
+        final long generation = (target != null) ? target.begin() : 0;
+        final int[] pixels = (target != null) ? target.getRaster() : new int[width * height];
+
+        for (int pass = 1; (pass <= maxPasses) && (activePixels > 0); pass++) {
+            // Counter of the pixels not converged
+            final AtomicInteger active = new AtomicInteger(0);
+
+            kernel.getScheduler().parallelFor(height, kernel.getPriority(),
+                    (int y) -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int x = 0; x < width; x++) {
+                    if (isCancelled() || ((target != null) && !target.isCurrent(generation))) {
+                        return;
+                    }
+                    int i = y * width + x;
+                    if (isConverged(samples[i], m2[i])) {
+                        continue;
+                    }
+
+                    // Jittered inside the pixel, centered on its point as in MandelbrotBase
+                    Color c = kernel.calcPoint(plane.toComplex(x + random.nextDouble() - 0.5,
+                            y + random.nextDouble() - 0.5));
+
+                    // Welford's online algorithm
+                    int n = ++samples[i];
+                    double l = 0.2126 * c.getRed() + 0.7152 * c.getGreen() + 0.0722 * c.getBlue();
+                    double delta = l - luminance[i];
+                    luminance[i] += delta / n;
+                    m2[i] += delta * (l - luminance[i]);
+                    red[i] += (c.getRed() - red[i]) / n;
+                    green[i] += (c.getGreen() - green[i]) / n;
+                    blue[i] += (c.getBlue() - blue[i]) / n;
+                    pixels[i] = ColorPalette.toArgb(Color.color(red[i], green[i], blue[i]));
+
+                    if (!isConverged(n, m2[i])) {
+                        active.incrementAndGet();
+                    }
+                }
+            });
+
+            if (isCancelled()) {
+                break;
+            }
+
+            activePixels = active.get();
+            if (target != null) {
+                if (!target.publish(generation, 0, 0, width, height)) {
+                    break;
+                }
+            }
+            else {
+                image.getPixelWriter().setPixels(0, 0, width, height,
+                        PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            }
+            updateProgress(pass, maxPasses);
+
+            if (onPass != null) {
+                onPass.call(pass);
+            }
+        }
+
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Check if a pixel is converged.
+     *
+     * @param n the number of samples of the pixel.
+     * @param m2 the sum of squares of differences from the mean luminance.
+     * @return true if the variance of the mean luminance is below the threshold.
+     */
+    private boolean isConverged(int n, double m2) {
+        return (n >= MIN_SAMPLES) && (m2 / (n - 1) / n < threshold);
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.Complex;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TileCache keeps the number of iterations of square tiles of pixels.
+ * The tiles are aligned to a grid of the complex plane that depends only on
+ * the scale, so after a pan only the new tiles must be calculated and going
+ * back to a previous view reuses the old ones. The scale of the grid is
+ * quantized (see getGridScale()), so the rounding errors of the zoom do not
+ * create a new grid.
+ * When the memory budget is exceeded the least recently used tiles are removed.
+ * The methods are synchronized because the tiles are calculated in parallel.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public class TileCache {
+
+    /**
+     * Number of pixels per side of a tile.
+     */
+    public static final int TILE_SIZE = 64;
+
+    /**
+     * Default memory budget in bytes.
+     */
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Number of low bits of the significand of the scale dropped by the
+     * quantization, a relative change of the scale of about 2e-10.
+     */
+    private static final int SCALE_DROPPED_BITS = 20;
+
+    /**
+     * Memory used by a tile in bytes.
+     */
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+    /**
+     * Memory budget in bytes.
+     */
+    private final long budget;
+
+    /**
+     * The tiles in access order (the first one is the least recently used).
+     */
+    private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Number of tiles found in the cache.
+     */
+    private long hits = 0;
+
+    /**
+     * Number of tiles not found in the cache.
+     */
+    private long misses = 0;
+
+    /**
+     * Create a TileCache with the default memory budget.
+     */
+    public TileCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Create a TileCache with the given memory budget.
+     *
+     * @param budget memory budget in bytes.
+     */
+    public TileCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Return the scale of the grid of a view: the scale rounded to the
+     * nearest value with the low SCALE_DROPPED_BITS of the significand at 0,
+     * so that the views of the same zoom level share the same grid.
+     *
+     * @param scale the scale of the view (pixels per unit, positive).
+     * @return the scale of the grid.
+     */
+    public static double getGridScale(double scale) {
+        long bits = Double.doubleToLongBits(scale);
+        bits += 1L << (SCALE_DROPPED_BITS - 1);
+        bits &= -1L << SCALE_DROPPED_BITS;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Return the number of iterations of a tile.
+     * The returned array must not be modified.
+     *
+     * @param key the key of the tile.
+     * @return the number of iterations of the tile (row by row) or null if not cached.
+     */
+    synchronized int[] get(Key key) {
+        int[] tile = tiles.get(key);
+        if (tile != null) {
+            hits++;
+        }
+        else {
+            misses++;
+        }
+        return tile;
+    }
+
+    /**
+     * Add a tile, removing the least recently used tiles if the memory
+     * budget is exceeded.
+     *
+     * @param key the key of the tile.
+     * @param tile the number of iterations of the tile (row by row).
+     */
+    synchronized void put(Key key, int[] tile) {
+        tiles.put(key, tile);
+
+        Iterator<Map.Entry<Key, int[]>> iterator = tiles.entrySet().iterator();
+        while ((tiles.size() * TILE_BYTES > budget) && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Remove all the tiles.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+    }
+
+    /**
+     * Return the memory used by the tiles in bytes.
+     *
+     * @return the memory used by the tiles in bytes.
+     */
+    public synchronized long getMemory() {
+        return tiles.size() * TILE_BYTES;
+    }
+
+    /**
+     * Return the number of tiles found in the cache.
+     *
+     * @return the number of tiles found in the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of tiles not found in the cache.
+     *
+     * @return the number of tiles not found in the cache.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The key of a tile: the fractal, its parameters and the position
+     * of the tile in the grid of the scale.
+     */
+    static final class Key {
+
+        /**
+         * The class of the fractal.
+         */
+        private final Class<?> fractal;
+
+        /**
+         * The real part of the power.
+         */
+        private final double powerRe;
+
+        /**
+         * The imaginary part of the power.
+         */
+        private final double powerIm;
+
+        /**
+         * The real part of the constant.
+         */
+        private final double constantRe;
+
+        /**
+         * The imaginary part of the constant.
+         */
+        private final double constantIm;
+
+        /**
+         * The max number of iterations.
+         */
+        private final int maxIterations;
+
+        /**
+         * The scale of the grid (pixels per unit, see getGridScale()).
+         */
+        private final double scale;
+
+        /**
+         * The column of the tile.
+         */
+        private final long tx;
+
+        /**
+         * The row of the tile.
+         */
+        private final long ty;
+
+        /**
+         * Create the key of a tile.
+         *
+         * @param fractal the fractal.
+         * @param dataBox the data of the fractal.
+         * @param scale the scale of the grid (see getGridScale()).
+         * @param tx the column of the tile.
+         * @param ty the row of the tile.
+         */
+        Key(MandelbrotBase fractal, DataBox dataBox, double scale, long tx, long ty) {
+            Complex power = dataBox.getPower();
+            Complex constant = dataBox.getConstant();
+
+            this.fractal = fractal.getClass();
+            this.powerRe = power.getReal();
+            this.powerIm = power.getImag();
+            this.constantRe = constant.getReal();
+            this.constantIm = constant.getImag();
+            this.maxIterations = dataBox.getMaxIterations();
+            this.scale = scale;
+            this.tx = tx;
+            this.ty = ty;
+        }
+
+        /**
+         * Check if two keys are equal.
+         *
+         * @param obj the other key.
+         * @return true if the keys are equal.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (fractal == other.fractal)
+                    && (Double.compare(powerRe, other.powerRe) == 0)
+                    && (Double.compare(powerIm, other.powerIm) == 0)
+                    && (Double.compare(constantRe, other.constantRe) == 0)
+                    && (Double.compare(constantIm, other.constantIm) == 0)
+                    && (maxIterations == other.maxIterations)
+                    && (Double.compare(scale, other.scale) == 0)
+                    && (tx == other.tx)
+                    && (ty == other.ty);
+        }
+
+        /**
+         * Return the hash code of the key.
+         *
+         * @return the hash code of the key.
+         */
+        @Override
+        public int hashCode() {
+            int hash = fractal.hashCode();
+            hash = 31 * hash + Double.hashCode(powerRe);
+            hash = 31 * hash + Double.hashCode(powerIm);
+            hash = 31 * hash + Double.hashCode(constantRe);
+            hash = 31 * hash + Double.hashCode(constantIm);
+            hash = 31 * hash + maxIterations;
+            hash = 31 * hash + Double.hashCode(scale);
+            hash = 31 * hash + Long.hashCode(tx);
+            hash = 31 * hash + Long.hashCode(ty);
+            return hash;
+        }
+
+    }
+
+}
@@ -15,7 +15,7 @@ import javafx.scene.paint.Color;
 /**
  * ColorPalette contains all the information about how to color fractals.
  *
- * @version 0.1
+ * @version 0.2
  * @author Deglans Dalpasso
  */
 public class ColorPalette {
@@ -151,4 +151,26 @@ public class ColorPalette {
         }
     }
 
+    /**
+     * Convert a color into an int in the ARGB format (8 bit for channel).
+     *
+     * @param color the color to convert.
+     * @return the ARGB value of color.
+     */
+    public static int toArgb(Color color) {
+        return ((int) Math.round(color.getOpacity() * 255) << 24)
+                | ((int) Math.round(color.getRed() * 255) << 16)
+                | ((int) Math.round(color.getGreen() * 255) << 8)
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    /**
+     * Return the length of the palette.
+     *
+     * @return the length of the palette.
+     */
+    public int getLength() {
+        return paletteLength;
+    }
+
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.utility;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * ProgressMeter counts the work units (such as pixels) done by the calculus
+ * threads without locks. The progress is not pushed by the threads: a single
+ * timer samples the meters at a fixed rate (see sample()), so the listeners
+ * (for example updateProgress() of a Task) are called at most SAMPLE_RATE
+ * times per second. It does not need JavaFX, so it can be used headless.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public class ProgressMeter {
+
+    /**
+     * Number of samples per second.
+     */
+    public static final int SAMPLE_RATE = 20;
+
+    /**
+     * The timer shared by all the meters.
+     */
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ProgressMeter timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The work units done.
+     */
+    private final LongAdder done = new LongAdder();
+
+    /**
+     * The total work units.
+     */
+    private volatile long total;
+
+    /**
+     * Create a ProgressMeter.
+     *
+     * @param total the total work units.
+     */
+    public ProgressMeter(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Add some work units done, can be called by any thread.
+     *
+     * @param units the work units done.
+     */
+    public void add(long units) {
+        done.add(units);
+    }
+
+    /**
+     * Return the work units done.
+     *
+     * @return the work units done.
+     */
+    public long getDone() {
+        return done.sum();
+    }
+
+    /**
+     * Return the total work units.
+     *
+     * @return the total work units.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Set the total work units, for the works that are known during the calculus.
+     *
+     * @param total the total work units.
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Return the fraction of the work done.
+     *
+     * @return the fraction of the work done (between 0 and 1).
+     */
+    public double getProgress() {
+        return (total > 0) ? Math.min(1.0, (double) getDone() / total) : 0;
+    }
+
+    /**
+     * Call a listener SAMPLE_RATE times per second from the timer thread,
+     * until the returned future is cancelled.
+     *
+     * @param listener the function to be called with this meter.
+     * @return the future for stop the sampling.
+     */
+    public ScheduledFuture<?> sample(Consumer<ProgressMeter> listener) {
+        long period = 1000000000L / SAMPLE_RATE;
+        return TIMER.scheduleAtFixedRate(() -> listener.accept(this), period, period,
+                TimeUnit.NANOSECONDS);
+    }
+
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.utility;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * RenderScheduler is the application-wide executor of the renderings.
+ * The calculus is done by an executor, by default a dedicated ForkJoinPool
+ * with the parallelism given by the system property THREADS_PROPERTY,
+ * that takes the work from a priority queue: every submission to the
+ * executor runs the first step of the queue.
+ * The loops of the engines (see parallelFor()) are split in small steps,
+ * such as a row or a tile, and every step goes back to the queue, so a work
+ * with an higher priority takes the threads at the end of the current steps.
+ * The tasks that start a rendering (see start()) run on their own threads
+ * because they only wait for their loops.
+ * The engines use the default scheduler (see setDefault()) or the one given
+ * to them (see MandelbrotBase.setScheduler()), an application that embeds
+ * them can give a scheduler built on its own executor. The state of the
+ * scheduler can be read by getMetrics() or toString().
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public class RenderScheduler {
+
+    /**
+     * System property for the number of worker threads.
+     */
+    public static final String THREADS_PROPERTY = "fractalview.threads";
+
+    /**
+     * The priority classes of the work, from the highest.
+     */
+    public enum Priority {
+
+        /**
+         * Previews needed for the interaction with the user.
+         */
+        INTERACTIVE,
+
+        /**
+         * Renderings requested by the user.
+         */
+        FOREGROUND,
+
+        /**
+         * Long batch works, such as the animations.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * The default scheduler (created when needed).
+     */
+    private static RenderScheduler defaultScheduler = null;
+
+    /**
+     * Number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * The executor that does the calculus.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * The steps waiting for a thread of the executor.
+     */
+    private final PriorityBlockingQueue<Step> queue = new PriorityBlockingQueue<>();
+
+    /**
+     * True in the threads that are running a step.
+     */
+    private final ThreadLocal<Boolean> inStep = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Number of steps running.
+     */
+    private final AtomicInteger running = new AtomicInteger(0);
+
+    /**
+     * Number of steps done.
+     */
+    private final AtomicLong completed = new AtomicLong(0);
+
+    /**
+     * The threads of the tasks that start a rendering.
+     */
+    private final ExecutorService starters;
+
+    /**
+     * Counter for keep the order of the steps with the same priority.
+     */
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    /**
+     * Create a RenderScheduler with a dedicated ForkJoinPool.
+     *
+     * @param threads the parallelism of the ForkJoinPool.
+     */
+    public RenderScheduler(int threads) {
+        this(new ForkJoinPool(Math.max(1, threads)), threads);
+    }
+
+    /**
+     * Create a RenderScheduler that uses the given executor.
+     * The executor is not shut down by the scheduler.
+     *
+     * @param executor the executor that does the calculus.
+     * @param threads the number of threads of the executor used by a loop.
+     */
+    public RenderScheduler(ExecutorService executor, int threads) {
+        this.threads = Math.max(1, threads);
+        this.workers = executor;
+
+        starters = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Return the default scheduler, with the number of worker threads given by
+     * the system property THREADS_PROPERTY or the number of processors.
+     *
+     * @return the default scheduler.
+     */
+    public static synchronized RenderScheduler getDefault() {
+        if (defaultScheduler == null) {
+            int threads = Integer.getInteger(THREADS_PROPERTY,
+                    Runtime.getRuntime().availableProcessors());
+            defaultScheduler = new RenderScheduler(threads);
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Replace the default scheduler, used by the following renderings.
+     *
+     * @param scheduler the new default scheduler.
+     */
+    public static synchronized void setDefault(RenderScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * Return the number of worker threads.
+     *
+     * @return the number of worker threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Return the current metrics of the scheduler, for the logs.
+     *
+     * @return the current metrics in text.
+     */
+    @Override
+    public String toString() {
+        return "RenderScheduler[" + getMetrics() + "]";
+    }
+
+    /**
+     * Return the current metrics of the scheduler and of its executor.
+     *
+     * @return the metrics.
+     */
+    public Metrics getMetrics() {
+        int activeThreads = running.get();
+        long steals = 0;
+        long queuedTasks = 0;
+
+        if (workers instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) workers;
+            activeThreads = pool.getActiveThreadCount();
+            steals = pool.getStealCount();
+            queuedTasks = pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+        }
+        else if (workers instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+            activeThreads = pool.getActiveCount();
+            queuedTasks = pool.getQueue().size();
+        }
+
+        return new Metrics(threads, activeThreads, steals, queuedTasks,
+                queue.size(), completed.get());
+    }
+
+    /**
+     * Start a task that makes a rendering (for example a javafx Task).
+     * The task should do its calculus with parallelFor().
+     *
+     * @param task the task to be started.
+     */
+    public void start(Runnable task) {
+        starters.execute(task);
+    }
+
+    /**
+     * Start some tasks that make a rendering and wait for them.
+     *
+     * @param <T> the type of the result of the tasks.
+     * @param tasks the tasks to be started.
+     * @return the Futures of the tasks.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+            throws InterruptedException {
+        return starters.invokeAll(tasks);
+    }
+
+    /**
+     * Call body for every index from 0 to count - 1 with the worker threads and
+     * wait the end. Every index is a step: after it the thread can be taken
+     * by a work with an higher priority.
+     * If called by a worker thread the loop is done by the calling thread.
+     * If the waiting thread is interrupted the remaining steps are not started,
+     * but the steps already running are still waited (the body is never
+     * called after the return) and then the interrupt flag is restored.
+     *
+     * @param count the number of indexes.
+     * @param priority the priority of the loop.
+     * @param body the function to be called for every index.
+     */
+    public void parallelFor(int count, Priority priority, IntConsumer body) {
+        if (count <= 0) {
+            return;
+        }
+
+        // A worker can't wait the other workers
+        if (inStep.get()) {
+            for (int i = 0; i < count; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+
+        Loop loop = new Loop(count, priority, body);
+        for (int k = 0; k < Math.min(threads, count); k++) {
+            submit(new Step(priority, loop));
+        }
+
+        try {
+            loop.done.await();
+        }
+        catch (InterruptedException ex) {
+            loop.next.set(count);
+            loop.awaitActive();
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable error = loop.error.get();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        else if (error instanceof Error) {
+            throw (Error) error;
+        }
+        else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Put a step in the queue and ask the executor to run the first step
+     * of the queue, that is not always the same step.
+     *
+     * @param step the step to be done.
+     */
+    private void submit(Step step) {
+        queue.add(step);
+        workers.execute(() -> {
+            Step first = queue.poll();
+            if (first == null) {
+                return;
+            }
+            inStep.set(true);
+            running.incrementAndGet();
+            try {
+                first.run();
+            }
+            finally {
+                running.decrementAndGet();
+                completed.incrementAndGet();
+                inStep.set(false);
+            }
+        });
+    }
+
+    /**
+     * A snapshot of the metrics of a RenderScheduler, for size the executor.
+     */
+    public static final class Metrics {
+
+        /**
+         * Number of threads used by a loop.
+         */
+        private final int threads;
+
+        /**
+         * Number of threads of the executor that are running.
+         */
+        private final int activeThreads;
+
+        /**
+         * Number of tasks stolen between the threads (only for ForkJoinPool).
+         */
+        private final long steals;
+
+        /**
+         * Number of tasks waiting in the executor.
+         */
+        private final long queuedTasks;
+
+        /**
+         * Number of steps waiting in the priority queue.
+         */
+        private final int queuedSteps;
+
+        /**
+         * Number of steps done.
+         */
+        private final long completedSteps;
+
+        /**
+         * Create a snapshot of the metrics.
+         *
+         * @param threads number of threads used by a loop.
+         * @param activeThreads number of threads of the executor that are running.
+         * @param steals number of tasks stolen between the threads.
+         * @param queuedTasks number of tasks waiting in the executor.
+         * @param queuedSteps number of steps waiting in the priority queue.
+         * @param completedSteps number of steps done.
+         */
+        Metrics(int threads, int activeThreads, long steals, long queuedTasks,
+                int queuedSteps, long completedSteps) {
+            this.threads = threads;
+            this.activeThreads = activeThreads;
+            this.steals = steals;
+            this.queuedTasks = queuedTasks;
+            this.queuedSteps = queuedSteps;
+            this.completedSteps = completedSteps;
+        }
+
+        /**
+         * Return the number of threads used by a loop.
+         *
+         * @return the number of threads used by a loop.
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Return the number of threads of the executor that are running.
+         *
+         * @return the number of threads of the executor that are running.
+         */
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        /**
+         * Return the number of tasks stolen between the threads (only for ForkJoinPool).
+         *
+         * @return the number of tasks stolen between the threads.
+         */
+        public long getSteals() {
+            return steals;
+        }
+
+        /**
+         * Return the number of tasks waiting in the executor.
+         *
+         * @return the number of tasks waiting in the executor.
+         */
+        public long getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        /**
+         * Return the number of steps waiting in the priority queue.
+         *
+         * @return the number of steps waiting in the priority queue.
+         */
+        public int getQueuedSteps() {
+            return queuedSteps;
+        }
+
+        /**
+         * Return the number of steps done.
+         *
+         * @return the number of steps done.
+         */
+        public long getCompletedSteps() {
+            return completedSteps;
+        }
+
+        /**
+         * Return the metrics as a string.
+         *
+         * @return the metrics as a string.
+         */
+        @Override
+        public String toString() {
+            return String.format("threads: %d, active: %d, steals: %d, queued tasks: %d, "
+                    + "queued steps: %d, completed steps: %d", threads, activeThreads,
+                    steals, queuedTasks, queuedSteps, completedSteps);
+        }
+
+    }
+
+    /**
+     * A loop of parallelFor().
+     */
+    private final class Loop implements Runnable {
+
+        /**
+         * The number of indexes.
+         */
+        private final int count;
+
+        /**
+         * The priority of the loop.
+         */
+        private final Priority priority;
+
+        /**
+         * The function to be called for every index.
+         */
+        private final IntConsumer body;
+
+        /**
+         * The next index to be done.
+         */
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        /**
+         * Number of steps of the loop that are running.
+         */
+        private final AtomicInteger active = new AtomicInteger(0);
+
+        /**
+         * Counter of the indexes not yet done.
+         */
+        private final CountDownLatch done;
+
+        /**
+         * The first error of the body (eventually null).
+         */
+        private final AtomicReference<Throwable> error = new AtomicReference<>(null);
+
+        /**
+         * Create a loop.
+         *
+         * @param count the number of indexes.
+         * @param priority the priority of the loop.
+         * @param body the function to be called for every index.
+         */
+        Loop(int count, Priority priority, IntConsumer body) {
+            this.count = count;
+            this.priority = priority;
+            this.body = body;
+            this.done = new CountDownLatch(count);
+        }
+
+        /**
+         * Do the next index and put the loop back in the queue.
+         */
+        @Override
+        public void run() {
+            // A step is active before it takes its index, so awaitActive() sees it
+            active.incrementAndGet();
+            try {
+                int i = next.getAndIncrement();
+                if (i >= count) {
+                    return;
+                }
+
+                try {
+                    body.accept(i);
+                }
+                catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+            finally {
+                if (active.decrementAndGet() == 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+
+            if (next.get() < count) {
+                submit(new Step(priority, this));
+            }
+        }
+
+        /**
+         * Wait, without being interrupted, the end of the steps that are
+         * running. After next is set to count no other step calls the body.
+         */
+        synchronized void awaitActive() {
+            boolean interrupted = false;
+            while (active.get() > 0) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    /**
+     * An element of the queue of the workers, ordered by priority
+     * and then by arrival.
+     */
+    private final class Step implements Runnable, Comparable<Step> {
+
+        /**
+         * The priority of the step.
+         */
+        private final Priority priority;
+
+        /**
+         * The arrival order of the step.
+         */
+        private final long order;
+
+        /**
+         * The work of the step.
+         */
+        private final Runnable work;
+
+        /**
+         * Create a step.
+         *
+         * @param priority the priority of the step.
+         * @param work the work of the step.
+         */
+        Step(Priority priority, Runnable work) {
+            this.priority = priority;
+            this.order = sequence.getAndIncrement();
+            this.work = work;
+        }
+
+        /**
+         * Do the work of the step.
+         */
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        /**
+         * Compare the steps by priority and then by arrival.
+         *
+         * @param other the other step.
+         * @return a negative number if this step comes first.
+         */
+        @Override
+        public int compareTo(Step other) {
+            int c = priority.compareTo(other.priority);
+            return (c != 0) ? c : Long.compare(order, other.order);
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.utility;
+
+import java.util.Arrays;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * RenderSurface is a display surface reused by all the renderings of a canvas.
+ * Every rendering starts a new generation (see begin()), writes its colors
+ * straight into the ARGB raster of the surface (see getRaster()) and marks
+ * the written parts as dirty (see publish()); the JavaFX thread copies only
+ * the dirty part of the raster into the image (see update()).
+ * A rendering writes the raster only while its generation is the current one
+ * (see isCurrent()) and the parts published by an older generation, such as
+ * the last steps of a cancelled rendering, are refused.
+ *
+ * @version 0.3
+ * @author Deglans Dalpasso
+ */
+public class RenderSurface {
+
+    /**
+     * The width of the surface.
+     */
+    private final int width;
+
+    /**
+     * The height of the surface.
+     */
+    private final int height;
+
+    /**
+     * The colors of the pixels in ARGB format, row by row.
+     */
+    private final int[] raster;
+
+    /**
+     * The image shown by the canvas.
+     */
+    private final WritableImage image;
+
+    /**
+     * The generation of the rendering that can write the raster.
+     */
+    private volatile long generation = 0;
+
+    /**
+     * Bounds of the dirty part of the raster (empty if minX >= maxX).
+     */
+    private int minX, minY, maxX, maxY;
+
+    /**
+     * Create a transparent RenderSurface.
+     *
+     * @param width the width of the surface.
+     * @param height the height of the surface.
+     */
+    public RenderSurface(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.raster = new int[width * height];
+        this.image = new WritableImage(width, height);
+        resetDirty();
+    }
+
+    /**
+     * Return the width of the surface.
+     *
+     * @return the width of the surface.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Return the height of the surface.
+     *
+     * @return the height of the surface.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Return the raster written by the current rendering.
+     *
+     * @return the colors of the pixels in ARGB format, row by row.
+     */
+    public int[] getRaster() {
+        return raster;
+    }
+
+    /**
+     * Return the image updated by update().
+     *
+     * @return the image.
+     */
+    public WritableImage getImage() {
+        return image;
+    }
+
+    /**
+     * Start a new rendering: make the raster transparent and refuse
+     * the writes of the previous generations.
+     *
+     * @return the generation of the new rendering, to be passed to publish().
+     */
+    public synchronized long begin() {
+        generation++;
+        Arrays.fill(raster, 0);
+        markDirty(0, 0, width, height);
+        return generation;
+    }
+
+    /**
+     * Check if a rendering can still write the raster.
+     *
+     * @param writer the generation of the rendering (see begin()).
+     * @return true if no newer rendering has begun.
+     */
+    public boolean isCurrent(long writer) {
+        return writer == generation;
+    }
+
+    /**
+     * Mark as dirty a part of the raster written by a rendering,
+     * can be called by any thread.
+     * Nothing is marked if a newer rendering has begun.
+     *
+     * @param writer the generation of the rendering (see begin()).
+     * @param x the x coordinate of the part.
+     * @param y the y coordinate of the part.
+     * @param w the width of the part.
+     * @param h the height of the part.
+     * @return false if the generation is not the current one.
+     */
+    public synchronized boolean publish(long writer, int x, int y, int w, int h) {
+        if (writer != generation) {
+            return false;
+        }
+        markDirty(x, y, w, h);
+        return true;
+    }
+
+    /**
+     * Mark a part of the raster as dirty.
+     *
+     * @param x the x coordinate of the part.
+     * @param y the y coordinate of the part.
+     * @param w the width of the part.
+     * @param h the height of the part.
+     */
+    private void markDirty(int x, int y, int w, int h) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x + w);
+        maxY = Math.max(maxY, y + h);
+    }
+
+    /**
+     * Copy the dirty part of the raster into the image.
+     * Must be called by the JavaFX thread.
+     *
+     * @return the updated part of the image or null if nothing was dirty.
+     */
+    public Rectangle2D update() {
+        int x, y, w, h;
+        synchronized (this) {
+            if ((minX >= maxX) || (minY >= maxY)) {
+                return null;
+            }
+            x = minX;
+            y = minY;
+            w = maxX - minX;
+            h = maxY - minY;
+            resetDirty();
+        }
+
+        image.getPixelWriter().setPixels(x, y, w, h,
+                PixelFormat.getIntArgbInstance(), raster, y * width + x, width);
+        return new Rectangle2D(x, y, w, h);
+    }
+
+    /**
+     * Mark the raster as clean.
+     */
+    private void resetDirty() {
+        minX = width;
+        minY = height;
+        maxX = 0;
+        maxY = 0;
+    }
+
+}
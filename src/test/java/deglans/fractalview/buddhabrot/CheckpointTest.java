@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the Checkpoint files and the variable-length numbers
+ * of the Histogram.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class CheckpointTest {
+
+    /**
+     * The values of the test histogram, row by row.
+     */
+    private static final long[] VALUES = {0, 1, 127, 128, 300, 3L * Integer.MAX_VALUE};
+
+    /**
+     * Test the encoding of the counts as variable-length numbers.
+     *
+     * @throws IOException if the stream can not be written.
+     */
+    @Test
+    public void testVarintEncode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        createHistogram(1).write(new DataOutputStream(bytes));
+
+        byte[] expected = {0, 1, 0x7F, (byte) 0x80, 0x01, (byte) 0xAC, 0x02};
+        byte[] written = bytes.toByteArray();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("byte " + i, expected[i], written[i]);
+        }
+        // 3 * (2^31 - 1) has 33 bits, 5 bytes of 7 bits
+        assertEquals(expected.length + 5, written.length);
+    }
+
+    /**
+     * Test the decoding of the counts written by write().
+     *
+     * @throws IOException if the stream can not be read.
+     */
+    @Test
+    public void testVarintDecode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        createHistogram(1).write(new DataOutputStream(bytes));
+
+        Histogram map = new Histogram(2, 3);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        map.read(in);
+        assertEquals(-1, in.read());
+        assertValues(map, 1);
+    }
+
+    /**
+     * Test that a checkpoint is read with the same parameters and counts.
+     *
+     * @throws IOException if the file can not be written or read.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        Checkpoint checkpoint = createCheckpoint(new Complex(2, 0), 3, Checkpoint.Sampling.METROPOLIS);
+        File file = File.createTempFile("checkpoint", ".bin");
+        try {
+            checkpoint.write(file, createHistogram(1));
+
+            Histogram map = new Histogram(2, 3);
+            Checkpoint read = Checkpoint.read(file, map);
+            assertValues(map, 1);
+            assertTrue(read.isCompatible(checkpoint));
+            assertEquals(3, read.getSupersampling());
+            assertEquals(100, read.getMaxIterations());
+            assertEquals(Checkpoint.Sampling.METROPOLIS, read.getSampling());
+            assertEquals(12345, read.getSamples());
+            assertEquals(678, read.getMillis());
+            assertArrayEquals(new double[] {-0.5, 0.25, 7}, read.getChains(), 0);
+            assertEquals(2, read.getPower().getReal(), 0);
+            assertEquals(-2, read.getPlane().getUpLeft().getReal(), 0);
+            assertEquals(-1, read.getPlane().getDownRight().getImag(), 0);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that the counts of more checkpoints are added.
+     *
+     * @throws IOException if the files can not be written or read.
+     */
+    @Test
+    public void testMerge() throws IOException {
+        Checkpoint checkpoint = createCheckpoint(new Complex(2, 0), 3, Checkpoint.Sampling.RANDOM);
+        File first = File.createTempFile("checkpoint", ".bin");
+        File second = File.createTempFile("checkpoint", ".bin");
+        try {
+            checkpoint.write(first, createHistogram(1));
+            checkpoint.write(second, createHistogram(2));
+
+            Histogram map = new Histogram(2, 3);
+            Checkpoint.read(first, map);
+            Checkpoint.read(second, map);
+            assertValues(map, 3);
+        }
+        finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    /**
+     * Test that a checkpoint of another size is refused.
+     *
+     * @throws IOException if the file can not be written.
+     */
+    @Test(expected = IOException.class)
+    public void testMergeDifferentSize() throws IOException {
+        File file = File.createTempFile("checkpoint", ".bin");
+        try {
+            createCheckpoint(new Complex(2, 0), 3, Checkpoint.Sampling.RANDOM)
+                    .write(file, createHistogram(1));
+            Checkpoint.read(file, new Histogram(3, 2));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test the compatibility of the parameters of two checkpoints.
+     */
+    @Test
+    public void testIsCompatible() {
+        Checkpoint checkpoint = createCheckpoint(new Complex(2, 0), 3, Checkpoint.Sampling.RANDOM);
+
+        assertTrue(checkpoint.isCompatible(createCheckpoint(new Complex(2, 0), 3,
+                Checkpoint.Sampling.RANDOM)));
+        assertFalse(checkpoint.isCompatible(createCheckpoint(new Complex(3, 0), 3,
+                Checkpoint.Sampling.RANDOM)));
+        assertFalse(checkpoint.isCompatible(createCheckpoint(new Complex(2, 0), 2,
+                Checkpoint.Sampling.RANDOM)));
+        assertFalse(checkpoint.isCompatible(createCheckpoint(new Complex(2, 0), 3,
+                Checkpoint.Sampling.METROPOLIS)));
+
+        // The view is compared with a tolerance of a fraction of a pixel
+        CartesianPlane near = new CartesianPlane(3, 2, new Complex(-2 + 1e-12, 1), new Complex(1, -1));
+        CartesianPlane far = new CartesianPlane(3, 2, new Complex(-1.5, 1), new Complex(1, -1));
+        assertTrue(checkpoint.isCompatible(new Checkpoint(near, new Complex(2, 0), 3,
+                new int[] {100}, Checkpoint.Sampling.RANDOM, 0, 0, new double[0])));
+        assertFalse(checkpoint.isCompatible(new Checkpoint(far, new Complex(2, 0), 3,
+                new int[] {100}, Checkpoint.Sampling.RANDOM, 0, 0, new double[0])));
+        assertFalse(checkpoint.isCompatible(new Checkpoint(checkpoint.getPlane(), new Complex(2, 0), 3,
+                new int[] {50, 100}, Checkpoint.Sampling.RANDOM, 0, 0, new double[0])));
+    }
+
+    /**
+     * Create a checkpoint of a 3 x 2 view.
+     *
+     * @param power the power of the fractal.
+     * @param supersampling the number of samples per side of a pixel.
+     * @param sampling the sampling of the seeds.
+     * @return the checkpoint.
+     */
+    private static Checkpoint createCheckpoint(Complex power, int supersampling,
+            Checkpoint.Sampling sampling) {
+        CartesianPlane plane = new CartesianPlane(3, 2, new Complex(-2, 1), new Complex(1, -1));
+        return new Checkpoint(plane, power, supersampling, new int[] {100}, sampling,
+                12345, 678, new double[] {-0.5, 0.25, 7});
+    }
+
+    /**
+     * Create a flushed 3 x 2 histogram with the test values times a factor.
+     *
+     * @param factor the factor of the values.
+     * @return the histogram.
+     */
+    private static Histogram createHistogram(int factor) {
+        Histogram map = new Histogram(2, 3);
+        Histogram.Shard shard = map.getShard();
+        for (int i = 0; i < VALUES.length; i++) {
+            long value = factor * VALUES[i];
+            while (value > 0) {
+                int weight = (int) Math.min(Integer.MAX_VALUE, value);
+                map.add(shard, i / 3, i % 3, weight);
+                value -= weight;
+            }
+        }
+        map.flush();
+        return map;
+    }
+
+    /**
+     * Check that a histogram has the test values times a factor.
+     *
+     * @param map the histogram.
+     * @param factor the factor of the values.
+     */
+    private static void assertValues(Histogram map, int factor) {
+        for (int i = 0; i < VALUES.length; i++) {
+            assertEquals("value " + i, factor * VALUES[i], map.get(i / 3, i % 3));
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.RenderScheduler;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Benchmark of the Buddhabrot Histogram: throughput of the orbit points
+ * counted from 1 to N threads, with the sharded Histogram and with a single
+ * locked array (the previous implementation).
+ * It is a development tool, skipped by the build unless the system property
+ * "benchmark" is true; run it with:
+ * mvn test -Dtest=HistogramBenchmark -Dbenchmark=true
+ *
+ * @version 0.4
+ * @author Deglans Dalpasso
+ */
+public class HistogramBenchmark {
+
+    /**
+     * Size of the histogram.
+     */
+    public static final int SIZE = 400;
+
+    /**
+     * Number of iterations of the orbits.
+     */
+    public static final int MAX_ITERATIONS = 1000;
+
+    /**
+     * Run the benchmark from 1 to the number of processors threads,
+     * only if the system property "benchmark" is true.
+     */
+    @Test
+    public void testThroughput() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("threads\tsharded (Mpoints/s)\tlocked (Mpoints/s)");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            ExecutorService pool = new ForkJoinPool(threads);
+            try {
+                RenderScheduler scheduler = new RenderScheduler(pool, threads);
+
+                run(scheduler, false);
+                double sharded = run(scheduler, false);
+                run(scheduler, true);
+                double locked = run(scheduler, true);
+                System.out.printf("%d\t%.2f\t%.2f%n", threads, sharded, locked);
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Count the orbits of the escaping points of a grid.
+     *
+     * @param scheduler the scheduler of the loop.
+     * @param locked true for a single locked array, false for the Histogram.
+     * @return the throughput in millions of points per second.
+     */
+    private static double run(RenderScheduler scheduler, boolean locked) {
+        Histogram histogram = new Histogram(SIZE, SIZE);
+        histogram.setScheduler(scheduler);
+        int[] single = new int[SIZE * SIZE];
+        long[] points = new long[SIZE];
+        double scale = SIZE / 4.0;
+
+        long start = System.nanoTime();
+        try {
+            scheduler.parallelFor(SIZE, RenderScheduler.Priority.FOREGROUND,
+                    (int y) -> {
+                Histogram.Shard shard = histogram.getShard();
+                for (int x = 0; x < SIZE; x++) {
+                    double cr = x / scale - 2;
+                    double ci = 2 - y / scale;
+                    if (escapes(cr, ci)) {
+                        double zr = 0;
+                        double zi = 0;
+                        for (int i = 0; (i < MAX_ITERATIONS) && (zr * zr + zi * zi < 4); i++) {
+                            double t = zr * zr - zi * zi + cr;
+                            zi = 2 * zr * zi + ci;
+                            zr = t;
+                            int r = (int) ((2 - zi) * scale);
+                            int c = (int) ((zr + 2) * scale);
+                            if ((0 <= r) && (r < SIZE) && (0 <= c) && (c < SIZE)) {
+                                if (locked) {
+                                    synchronized (single) {
+                                        single[r * SIZE + c]++;
+                                    }
+                                }
+                                else {
+                                    histogram.add(shard, r, c, 1);
+                                }
+                                points[y]++;
+                            }
+                        }
+                    }
+                }
+            });
+            if (!locked) {
+                histogram.flush();
+                histogram.merge();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long total = 0;
+            for (long p : points) {
+                total += p;
+            }
+            return total / seconds / 1e6;
+        }
+        finally {
+            histogram.release();
+        }
+    }
+
+    /**
+     * Return true if the orbit of a point escapes within MAX_ITERATIONS.
+     *
+     * @param cr the real part of the point.
+     * @param ci the imaginary part of the point.
+     * @return true if the orbit escapes.
+     */
+    private static boolean escapes(double cr, double ci) {
+        double zr = 0;
+        double zi = 0;
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double t = zr * zr - zi * zi + cr;
+            zi = 2 * zr * zi + ci;
+            zr = t;
+            if (zr * zr + zi * zi >= 4) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import java.util.SplittableRandom;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the Buddhabrot Histogram: the counts written by more
+ * threads through their Shards, the merge and the percentile buckets.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class HistogramTest {
+
+    /**
+     * Number of rows of the test histograms.
+     */
+    private static final int ROWS = 37;
+
+    /**
+     * Number of columns of the test histograms.
+     */
+    private static final int COLUMNS = 53;
+
+    /**
+     * Number of writing threads.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * Number of points written by every thread, more than a Shard.
+     */
+    private static final int POINTS = 3 * Histogram.SHARD_SIZE + 17;
+
+    /**
+     * Test that the points of more threads are all counted after flush(),
+     * with the right total and maximum after merge().
+     *
+     * @throws InterruptedException if the test is interrupted.
+     */
+    @Test
+    public void testShardsFlushMerge() throws InterruptedException {
+        final Histogram map = new Histogram(ROWS, COLUMNS);
+        final long[] expected = new long[ROWS * COLUMNS];
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Histogram.Shard shard = map.getShard();
+                SplittableRandom random = new SplittableRandom(seed);
+                for (int i = 0; i < POINTS; i++) {
+                    map.add(shard, random.nextInt(ROWS), random.nextInt(COLUMNS), 1 + random.nextInt(3));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // The same points, for the expected counts
+        for (int t = 0; t < THREADS; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            for (int i = 0; i < POINTS; i++) {
+                int r = random.nextInt(ROWS);
+                int c = random.nextInt(COLUMNS);
+                expected[r * COLUMNS + c] += 1 + random.nextInt(3);
+            }
+        }
+
+        map.flush();
+        map.merge();
+
+        long total = 0;
+        long max = 0;
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLUMNS; c++) {
+                assertEquals(expected[r * COLUMNS + c], map.get(r, c));
+                total += expected[r * COLUMNS + c];
+                max = Math.max(max, expected[r * COLUMNS + c]);
+            }
+        }
+        assertEquals(total, map.getTotal());
+        assertEquals(max, map.getMax());
+    }
+
+    /**
+     * Test that the bands are accumulated when read and merged.
+     */
+    @Test
+    public void testBands() {
+        Histogram map = new Histogram(2, 2, 3);
+        Histogram.Shard shard = map.getShard();
+        shard.setBand(0);
+        map.add(shard, 0, 0, 5);
+        shard.setBand(1);
+        map.add(shard, 0, 0, 7);
+        map.add(shard, 1, 1, 2);
+        shard.setBand(2);
+        map.add(shard, 1, 0, 11);
+        map.flush();
+        map.merge();
+
+        assertEquals(5, map.get(0, 0, 0));
+        assertEquals(12, map.get(1, 0, 0));
+        assertEquals(12, map.get(0, 0));
+        assertEquals(0, map.get(1, 1, 0));
+        assertEquals(11, map.get(1, 0));
+        assertEquals(5, map.getMax(0));
+        assertEquals(12, map.getMax(1));
+        assertEquals(12, map.getMax());
+        assertEquals(25, map.getTotal());
+    }
+
+    /**
+     * Test that the percentile buckets are exact under 16 and within
+     * 1/SUB_BUCKETS of the value above, in ascending order.
+     */
+    @Test
+    public void testBuckets() {
+        for (long value = 1; value < 16; value++) {
+            assertEquals(value, Histogram.getBucketValue(Histogram.getBucket(value)));
+        }
+
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = 1 + (random.nextLong(Long.MAX_VALUE) >>> random.nextInt(63));
+            int bucket = Histogram.getBucket(value);
+            long low = Histogram.getBucketValue(bucket);
+            assertTrue((bucket >= 0) && (bucket < Histogram.BUCKETS));
+            assertTrue(low <= value);
+            assertTrue(value - low <= low / Histogram.SUB_BUCKETS);
+            assertEquals(bucket, Histogram.getBucket(low));
+        }
+
+        int last = 0;
+        for (long value = 1; value > 0; value += 1 + value / 3) {
+            int bucket = Histogram.getBucket(value);
+            assertTrue(bucket >= last);
+            last = bucket;
+        }
+        assertTrue(Histogram.getBucket(Long.MAX_VALUE) < Histogram.BUCKETS);
+    }
+
+    /**
+     * Test the percentiles of the non-zero values.
+     */
+    @Test
+    public void testPercentile() {
+        Histogram map = new Histogram(1, 10);
+        Histogram.Shard shard = map.getShard();
+        for (int c = 0; c < 9; c++) {
+            map.add(shard, 0, c, c + 1);
+        }
+        map.flush();
+        map.merge();
+
+        assertEquals(1, map.getPercentile(0, 0.1));
+        assertEquals(5, map.getPercentile(0, 0.5));
+        assertEquals(9, map.getPercentile(0, 1));
+        assertEquals(1, map.getRank(0, 9), 0);
+        assertEquals(0, map.getRank(0, 0), 0);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import deglans.fractalview.utility.ProgressMeter;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the Metropolis-Hastings sampling of the Buddhabrot:
+ * its weighted histogram must converge to the one of the uniform sampling.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class MetropolisSamplingTest {
+
+    /**
+     * Number of pixels per side of the view.
+     */
+    private static final int SIZE = 16;
+
+    /**
+     * Number of seeds of every sampling.
+     */
+    private static final long SAMPLES = 2000000;
+
+    /**
+     * Maximum number of iterations.
+     */
+    private static final int MAX_ITERATIONS = 100;
+
+    /**
+     * Maximum L1 distance between the normalized histograms, about twice
+     * the distance between two uniform samplings of SAMPLES seeds.
+     */
+    private static final double MAX_DISTANCE = 0.12;
+
+    /**
+     * Test that the Metropolis-Hastings histogram of a small view is the
+     * same as the uniform one.
+     */
+    @Test
+    public void testMetropolisMatchesUniform() {
+        CartesianPlane plane = new CartesianPlane(SIZE, SIZE,
+                new Complex(-1, 0.5), new Complex(-0.5, 0));
+
+        double[] uniform = sample(plane, false);
+        double[] metropolis = sample(plane, true);
+
+        double distance = 0;
+        for (int i = 0; i < uniform.length; i++) {
+            distance += Math.abs(uniform[i] - metropolis[i]);
+        }
+        assertTrue("L1 distance " + distance, distance < MAX_DISTANCE);
+    }
+
+    /**
+     * Sample the Buddhabrot of a view without drawing it.
+     *
+     * @param plane the view.
+     * @param metropolis true for the Metropolis-Hastings sampling, false for the uniform one.
+     * @return the histogram normalized to a total of 1, row by row.
+     */
+    private static double[] sample(CartesianPlane plane, boolean metropolis) {
+        BuddhabrotSimple buddhabrot = new BuddhabrotSimple(plane, null, MAX_ITERATIONS,
+                new Complex(2, 0), 1, null, null) {
+            @Override
+            protected void drawImage() {
+            }
+        };
+        if (metropolis) {
+            buddhabrot.setMetropolisSampling(SAMPLES, 0, 0);
+        }
+        else {
+            buddhabrot.setRandomSampling(SAMPLES, 0, 0);
+        }
+        buddhabrot.setSeedCaching(false);
+        buddhabrot.sampleRandom(new ProgressMeter(SAMPLES), System.currentTimeMillis());
+
+        double[] histogram = new double[SIZE * SIZE];
+        double total = 0;
+        for (int r = 0; r < SIZE; r++) {
+            for (int c = 0; c < SIZE; c++) {
+                histogram[r * SIZE + c] = buddhabrot.getValue(r, c);
+                total += histogram[r * SIZE + c];
+            }
+        }
+        assertTrue(total > 0);
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] /= total;
+        }
+        return histogram;
+    }
+
+}
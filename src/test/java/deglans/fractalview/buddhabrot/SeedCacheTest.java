@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import deglans.fractalview.utility.ProgressMeter;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the SeedCache: the blocks of seeds with their escape
+ * counts and the Nebulabrot renders replayed from the cache, that must
+ * give the same histogram without escape tests.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class SeedCacheTest {
+
+    /**
+     * Number of pixels per side of the view.
+     */
+    private static final int SIZE = 16;
+
+    /**
+     * The maximum number of iterations of every band.
+     */
+    private static final int[] LIMITS = {20, 100, 300};
+
+    /**
+     * Test that a block returns the escaping seeds and their counts.
+     */
+    @Test
+    public void testBlock() {
+        SeedCache.Block block = new SeedCache.Block(42, 1);
+        for (int i = 0; i < 200; i++) {
+            block.add((i % 3 == 0) ? i : -1);
+        }
+
+        assertEquals(42, block.getSeed());
+        assertEquals(200, block.getSize());
+        int k = 0;
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i % 3 == 0, block.isEscaping(i));
+            if (block.isEscaping(i)) {
+                assertEquals(i, block.getLength(k++));
+            }
+        }
+    }
+
+    /**
+     * Test that the blocks are not added beyond the memory of the cache.
+     */
+    @Test
+    public void testMemoryBudget() {
+        SeedCache cache = new SeedCache();
+        int added = 0;
+        while (cache.getBlocks() == added) {
+            SeedCache.Block block = new SeedCache.Block(added, BuddhabrotBase.BATCH);
+            for (int i = 0; i < BuddhabrotBase.BATCH; i++) {
+                block.add(i);
+            }
+            cache.add(block);
+            added++;
+        }
+        long memory = (long) cache.getBlocks() * (BuddhabrotBase.BATCH / 8 + 4 * BuddhabrotBase.BATCH);
+        assertTrue(memory <= SeedCache.MAX_MEMORY);
+        assertNull(cache.getBlock(cache.getBlocks()));
+    }
+
+    /**
+     * Test that a second render of the same grid gives the same histogram
+     * without escape tests.
+     */
+    @Test
+    public void testGridReplay() {
+        CartesianPlane plane = new CartesianPlane(SIZE, SIZE,
+                new Complex(-1.25, 0.75), new Complex(-0.25, -0.25));
+
+        Counting first = new Counting(plane, 2);
+        first.sampleGrid(new ProgressMeter(SIZE * SIZE));
+        assertTrue(first.tests.get() > 0);
+        assertEquals(0, first.getCachedSeeds());
+
+        Counting second = new Counting(plane, 2);
+        second.sampleGrid(new ProgressMeter(SIZE * SIZE));
+        assertEquals(0, second.tests.get());
+        assertEquals(first.tests.get(), second.getCachedSeeds());
+        assertSameHistogram(first, second);
+
+        // Another supersampling has other seeds
+        Counting other = new Counting(plane, 1);
+        other.sampleGrid(new ProgressMeter(SIZE * SIZE));
+        assertTrue(other.tests.get() > 0);
+    }
+
+    /**
+     * Test that a second uniform random render replays the blocks of the
+     * first one and gives the same histogram without escape tests.
+     */
+    @Test
+    public void testRandomReplay() {
+        CartesianPlane plane = new CartesianPlane(SIZE, SIZE,
+                new Complex(-1, 0.5), new Complex(-0.5, 0));
+        // A power used only by this test, so the cache is empty
+        Complex power = new Complex(2, 1e-9);
+        final long samples = 4L * BuddhabrotBase.BATCH;
+
+        Counting first = new Counting(plane, power);
+        first.setRandomSampling(samples, 0, 0);
+        first.sampleRandom(new ProgressMeter(samples), System.currentTimeMillis());
+        assertEquals(samples, first.tests.get());
+
+        Counting second = new Counting(plane, power);
+        second.setRandomSampling(samples, 0, 0);
+        second.sampleRandom(new ProgressMeter(samples), System.currentTimeMillis());
+        assertEquals(0, second.tests.get());
+        assertEquals(samples, second.getCachedSeeds());
+        assertSameHistogram(first, second);
+    }
+
+    /**
+     * Check that every band of two renders has the same values.
+     *
+     * @param expected the first render.
+     * @param actual the second render.
+     */
+    private static void assertSameHistogram(Counting expected, Counting actual) {
+        long total = 0;
+        for (int band = 0; band < LIMITS.length; band++) {
+            for (int r = 0; r < SIZE; r++) {
+                for (int c = 0; c < SIZE; c++) {
+                    assertEquals(expected.getValue(band, r, c), actual.getValue(band, r, c));
+                    total += actual.getValue(band, r, c);
+                }
+            }
+        }
+        assertTrue(total > 0);
+    }
+
+    /**
+     * A Nebulabrot that counts the escape tests and does not draw.
+     */
+    private static class Counting extends NebulabrotSimple {
+
+        /**
+         * Number of escape tests.
+         */
+        final AtomicLong tests = new AtomicLong(0);
+
+        /**
+         * Create a Counting instance for the grid sampling.
+         *
+         * @param plane the view.
+         * @param supersampling the supersampling of the pixels.
+         */
+        Counting(CartesianPlane plane, int supersampling) {
+            super(plane, null, LIMITS, NebulabrotSimple.getDefaultColors(LIMITS.length),
+                    new Complex(2, 0), supersampling);
+        }
+
+        /**
+         * Create a Counting instance for the random sampling.
+         *
+         * @param plane the view.
+         * @param power the power of the fractal.
+         */
+        Counting(CartesianPlane plane, Complex power) {
+            super(plane, null, LIMITS, NebulabrotSimple.getDefaultColors(LIMITS.length), power, 1);
+        }
+
+        @Override
+        protected int iterate(double re, double im, Histogram.Shard shard, int weight) {
+            if (shard == null) {
+                tests.incrementAndGet();
+            }
+            return super.iterate(re, im, shard, weight);
+        }
+
+        @Override
+        protected void drawImage() {
+        }
+
+    }
+
+}
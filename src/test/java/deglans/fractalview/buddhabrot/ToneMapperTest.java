@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.buddhabrot;
+
+import java.util.SplittableRandom;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the indexes of the lookup tables of the ToneMapper.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class ToneMapperTest {
+
+    /**
+     * Test that the small values have their own entry.
+     */
+    @Test
+    public void testDirectIndex() {
+        for (long value = 0; value < ToneMapper.DIRECT; value++) {
+            assertEquals(value, ToneMapper.getIndex(value));
+            assertEquals(value, ToneMapper.getIndexValue((int) value));
+        }
+    }
+
+    /**
+     * Test that every entry is the index of its smallest value and that
+     * the indexes are contiguous and ascending.
+     */
+    @Test
+    public void testIndexValue() {
+        int last = ToneMapper.getIndex(Long.MAX_VALUE);
+        long previous = -1;
+        for (int index = 0; index <= last; index++) {
+            long value = ToneMapper.getIndexValue(index);
+            assertTrue(value > previous);
+            assertEquals(index, ToneMapper.getIndex(value));
+            assertEquals(index - 1, ToneMapper.getIndex(value - 1));
+            previous = value;
+        }
+    }
+
+    /**
+     * Test that the large values share an entry within 1/2^INDEX_BITS
+     * of their magnitude.
+     */
+    @Test
+    public void testIndexResolution() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = ToneMapper.DIRECT + (random.nextLong(Long.MAX_VALUE) >>> random.nextInt(52));
+            long low = ToneMapper.getIndexValue(ToneMapper.getIndex(value));
+            assertTrue(low <= value);
+            assertTrue(value - low <= low >>> ToneMapper.INDEX_BITS);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import javafx.scene.paint.Color;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the edge-adaptive anti-aliasing of MandelbrotBase:
+ * the detection of the edges and the supersampled pixels, that must be
+ * centered on the point of the first pass.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public class AntialiasingTest {
+
+    /**
+     * Number of pixels per side of the view.
+     */
+    private static final int SIZE = 16;
+
+    /**
+     * Number of samples per side of the supersampled pixels.
+     */
+    private static final int SUPERSAMPLING = 4;
+
+    /**
+     * Threshold that marks every pixel as an edge.
+     */
+    private static final int EVERY_PIXEL = -1;
+
+    /**
+     * Test that a pixel is an edge when a neighbor (up, down, left, right)
+     * differs by more than the threshold, also on the borders of the image,
+     * and that the pixels without iterations are never edges.
+     */
+    @Test
+    public void testIsEdge() {
+        DataBox dataBox = new DataBox(DataBox.DEFAULT_MAX_ITERATIONS, DataBox.DEFAULT_POWER,
+                DataBox.DEFAULT_CONSTANT, new CartesianPlane(3, 3,
+                new Complex(-1, 1), new Complex(1, -1)), null);
+        MandelbrotSimple fractal = new MandelbrotSimple(dataBox, false);
+        fractal.setAntialiasing(SUPERSAMPLING, 2);
+
+        int[] iterations = {
+            10, 12, 10,
+            10, 10, 13,
+            10, 10, 10
+        };
+        // Differences of 2 are not edges, of 3 are
+        assertFalse(fractal.isEdge(iterations, 3, 3, 0, 0));
+        assertFalse(fractal.isEdge(iterations, 3, 3, 1, 0));
+        assertTrue(fractal.isEdge(iterations, 3, 3, 2, 0));
+        assertTrue(fractal.isEdge(iterations, 3, 3, 1, 1));
+        assertTrue(fractal.isEdge(iterations, 3, 3, 2, 1));
+        assertTrue(fractal.isEdge(iterations, 3, 3, 2, 2));
+        // The diagonal neighbors are not checked
+        assertFalse(fractal.isEdge(iterations, 3, 3, 1, 2));
+        assertFalse(fractal.isEdge(iterations, 3, 3, 0, 2));
+
+        // The fractals that are not escape-time have no edges
+        iterations[4] = MandelbrotBase.NO_ITERATIONS;
+        assertFalse(fractal.isEdge(iterations, 3, 3, 1, 1));
+    }
+
+    /**
+     * Test that a flat region outside the Mandelbrot set gives the same
+     * colors with and without anti-aliasing.
+     */
+    @Test
+    public void testFlatRegion() {
+        DataBox dataBox = new DataBox(DataBox.DEFAULT_MAX_ITERATIONS, DataBox.DEFAULT_POWER,
+                DataBox.DEFAULT_CONSTANT, new CartesianPlane(SIZE, SIZE,
+                new Complex(10, 11), new Complex(11, 10)), null);
+
+        int[] plain = new MandelbrotSimple(dataBox, false).render();
+        MandelbrotSimple antialiased = new MandelbrotSimple(dataBox, false);
+        antialiased.setAntialiasing(SUPERSAMPLING, EVERY_PIXEL);
+
+        assertArrayEquals(plain, antialiased.render());
+        assertEquals((long) SIZE * SIZE * SUPERSAMPLING * SUPERSAMPLING, antialiased.getExtraSamples());
+    }
+
+    /**
+     * Test that on a linear ramp the average of the samples of a pixel is
+     * the value of its point, so that the supersampled pixels are not
+     * shifted from the others.
+     */
+    @Test
+    public void testRampNotShifted() {
+        DataBox dataBox = new DataBox(DataBox.DEFAULT_MAX_ITERATIONS, DataBox.DEFAULT_POWER,
+                DataBox.DEFAULT_CONSTANT, new CartesianPlane(SIZE, SIZE,
+                new Complex(1, 2), new Complex(5, -2)), null);
+
+        int[] plain = new Ramp(dataBox).render();
+        Ramp antialiased = new Ramp(dataBox);
+        antialiased.setAntialiasing(SUPERSAMPLING, EVERY_PIXEL);
+
+        assertArrayEquals(plain, antialiased.render());
+    }
+
+    /**
+     * A fractal whose number of iterations grows by 8 every pixel along the
+     * real axis, colored by a gray level equal to the number of iterations.
+     */
+    private static class Ramp extends EscapeTimeBase {
+
+        /**
+         * Create a Ramp instance with the given data.
+         *
+         * @param dataBox the data of this fractal instance.
+         */
+        Ramp(DataBox dataBox) {
+            super(dataBox);
+        }
+
+        @Override
+        protected Orbit startOrbit(Complex c) {
+            return new Orbit(new Complex(c), 0);
+        }
+
+        @Override
+        protected void iterate(Complex c, Orbit orbit, int maxIterations) {
+            orbit.set(orbit.getZ(), (int) Math.round(c.getReal() * 2 * SIZE));
+        }
+
+        @Override
+        protected Color getColor(int count) {
+            return Color.rgb(count, count, count);
+        }
+
+    }
+
+}
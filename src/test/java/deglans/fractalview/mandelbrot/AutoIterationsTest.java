@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the AutoIterations: the views inside the set must not
+ * iterate the probe up to MAX_ITERATIONS.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class AutoIterationsTest {
+
+    /**
+     * Number of pixels per side of the probe.
+     */
+    private static final int PROBE_SIZE = 32;
+
+    /**
+     * Test that a view entirely inside the main cardioid stops as soon as
+     * the given maxIterations is reached.
+     */
+    @Test
+    public void testInterior() {
+        AutoIterations auto = new AutoIterations("Mandelbrot Simple", getInterior(100), null,
+                PROBE_SIZE, AutoIterations.DEFAULT_TARGET);
+
+        assertEquals(AutoIterations.MIN_ITERATIONS, auto.probe());
+        // The probe keeps the proportions of the view
+        assertEquals((long) PROBE_SIZE * (PROBE_SIZE * 3 / 4) * 100, auto.getProgressMeter().getDone());
+    }
+
+    /**
+     * Test that a view inside the set with a huge maxIterations stops at
+     * MAX_PROBE_WORK iterations.
+     */
+    @Test
+    public void testWorkBound() {
+        AutoIterations auto = new AutoIterations("Mandelbrot Simple",
+                getInterior(AutoIterations.MAX_ITERATIONS), null,
+                PROBE_SIZE, AutoIterations.DEFAULT_TARGET);
+
+        assertEquals(AutoIterations.MIN_ITERATIONS, auto.probe());
+        assertTrue(auto.getProgressMeter().getDone() <= AutoIterations.MAX_PROBE_WORK);
+    }
+
+    /**
+     * Test that the view of the whole set gives a maxIterations that leaves
+     * only the boundary unresolved.
+     */
+    @Test
+    public void testWholeSet() {
+        DataBox dataBox = new DataBox(100, DataBox.DEFAULT_POWER, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(400, 300, new Complex(-2.5, 1.5), new Complex(1.5, -1.5)), null);
+        AutoIterations auto = new AutoIterations("Mandelbrot Simple", dataBox, null,
+                PROBE_SIZE, AutoIterations.DEFAULT_TARGET);
+
+        int chosen = auto.probe();
+        assertTrue(chosen >= AutoIterations.MIN_ITERATIONS);
+        assertTrue(chosen < AutoIterations.MAX_ITERATIONS);
+    }
+
+    /**
+     * Return the data of a view of 800 x 600 pixels inside the main cardioid.
+     *
+     * @param maxIterations the maximum number of iterations.
+     * @return the DataBox of the view.
+     */
+    private static DataBox getInterior(int maxIterations) {
+        return new DataBox(maxIterations, DataBox.DEFAULT_POWER, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(800, 600, new Complex(-0.3, 0.1), new Complex(-0.1, -0.1)), null);
+    }
+
+}
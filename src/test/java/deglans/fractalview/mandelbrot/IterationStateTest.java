@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the incremental deepening: the IterationState and the
+ * renders continued from it, also by tiles.
+ *
+ * @version 0.2
+ * @author Deglans Dalpasso
+ */
+public class IterationStateTest {
+
+    /**
+     * Number of pixels per side of the view.
+     */
+    private static final int SIZE = 48;
+
+    /**
+     * Number of writing threads.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * Test that a state is used only by the same fractal and view,
+     * whatever the maxIterations.
+     */
+    @Test
+    public void testIsCompatible() {
+        DataBox dataBox = getDataBox(100, DataBox.DEFAULT_POWER, new Complex(-2, 1.5));
+        IterationState state = new IterationState(new MandelbrotSimple(dataBox, false), dataBox);
+
+        DataBox deeper = getDataBox(400, DataBox.DEFAULT_POWER, new Complex(-2, 1.5));
+        assertTrue(state.isCompatible(new MandelbrotSimple(deeper, false), deeper));
+
+        assertFalse(state.isCompatible(new JuliaSimple(dataBox, false), dataBox));
+        DataBox power = getDataBox(100, new Complex(3, 0), new Complex(-2, 1.5));
+        assertFalse(state.isCompatible(new MandelbrotSimple(power, false), power));
+        DataBox moved = getDataBox(100, DataBox.DEFAULT_POWER, new Complex(-2.5, 1.5));
+        assertFalse(state.isCompatible(new MandelbrotSimple(moved, false), moved));
+        DataBox resized = new DataBox(100, DataBox.DEFAULT_POWER, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(SIZE + 1, SIZE, new Complex(-2, 1.5), new Complex(1, -1.5)), null);
+        assertFalse(state.isCompatible(new MandelbrotSimple(resized, false), resized));
+    }
+
+    /**
+     * Test that the z saved in any order by more threads are found after
+     * pack(), and only for the pixels that reached maxIterations.
+     *
+     * @throws InterruptedException if the test is interrupted.
+     */
+    @Test
+    public void testPackAndLookup() throws InterruptedException {
+        final int maxIterations = 100;
+        DataBox dataBox = getDataBox(maxIterations, DataBox.DEFAULT_POWER, new Complex(-2, 1.5));
+        final IterationState state = new IterationState(new MandelbrotSimple(dataBox, false), dataBox);
+        final int pixels = SIZE * SIZE;
+
+        // Every thread saves the pixels of its residue class from the last one
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t;
+            threads[t] = new Thread(() -> {
+                for (int index = pixels - 1 - first; index >= 0; index -= THREADS) {
+                    int count = (index % 3 == 0) ? maxIterations : index % maxIterations;
+                    state.setOrbit(index, new Orbit(new Complex(index, -index), count));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        state.pack();
+
+        for (int index = 0; index < pixels; index++) {
+            Orbit orbit = state.getOrbit(index);
+            if (index % 3 == 0) {
+                assertEquals(maxIterations, state.getCount(index));
+                assertNotNull(orbit);
+                assertEquals(maxIterations, orbit.getCount());
+                assertEquals(index, orbit.getZ().getReal(), 0);
+                assertEquals(-index, orbit.getZ().getImag(), 0);
+            }
+            else {
+                assertEquals(index % maxIterations, state.getCount(index));
+                assertNull(orbit);
+            }
+        }
+    }
+
+    /**
+     * Test that a render continued from a state with a lower maxIterations
+     * is the same as a render from scratch, and that the next state holds
+     * the new maxIterations.
+     */
+    @Test
+    public void testDeepenedEqualsScratch() {
+        Complex upLeft = new Complex(-0.75, 0.25);
+        MandelbrotSimple shallow = new MandelbrotSimple(getDataBox(50, DataBox.DEFAULT_POWER, upLeft), false);
+        shallow.setIterationState(null);
+        shallow.render();
+        assertEquals(50, shallow.getIterationState().getMaxIterations());
+
+        DataBox dataBox = getDataBox(300, DataBox.DEFAULT_POWER, upLeft);
+        MandelbrotSimple deepened = new MandelbrotSimple(dataBox, false);
+        deepened.setIterationState(shallow.getIterationState());
+
+        assertArrayEquals(new MandelbrotSimple(dataBox, false).render(), deepened.render());
+        assertEquals(300, deepened.getIterationState().getMaxIterations());
+    }
+
+    /**
+     * Test that a render with a lower maxIterations is taken from the counts
+     * of the state, the same as a render from scratch, and keeps the state.
+     */
+    @Test
+    public void testReducedEqualsScratch() {
+        Complex upLeft = new Complex(-0.75, 0.25);
+        MandelbrotSimple deep = new MandelbrotSimple(getDataBox(300, DataBox.DEFAULT_POWER, upLeft), false);
+        deep.setIterationState(null);
+        deep.render();
+
+        DataBox dataBox = getDataBox(80, DataBox.DEFAULT_POWER, upLeft);
+        MandelbrotSimple reduced = new MandelbrotSimple(dataBox, false);
+        reduced.setIterationState(deep.getIterationState());
+
+        assertArrayEquals(new MandelbrotSimple(dataBox, false).render(), reduced.render());
+        assertSame(deep.getIterationState(), reduced.getIterationState());
+    }
+
+    /**
+     * Test that a tiled render continued from a state with a lower
+     * maxIterations is the same as a render from scratch and starts no orbit,
+     * also for the pixels of the tiles outside the view.
+     */
+    @Test
+    public void testTiledDeepenedEqualsScratch() {
+        Complex upLeft = new Complex(-0.75, 0.25);
+        TileCache tileCache = new TileCache();
+        Counting shallow = new Counting(getDataBox(50, DataBox.DEFAULT_POWER, upLeft));
+        shallow.setTileCache(tileCache);
+        shallow.setIterationState(null);
+        shallow.render();
+
+        DataBox dataBox = getDataBox(300, DataBox.DEFAULT_POWER, upLeft);
+        Counting deepened = new Counting(dataBox);
+        deepened.setTileCache(tileCache);
+        deepened.setIterationState(shallow.getIterationState());
+        MandelbrotSimple scratch = new MandelbrotSimple(dataBox, false);
+        scratch.setTileCache(new TileCache());
+
+        assertArrayEquals(scratch.render(), deepened.render());
+        assertEquals(0, deepened.starts.get());
+        assertEquals(300, deepened.getIterationState().getMaxIterations());
+    }
+
+    /**
+     * Test that a tiled render with a lower maxIterations is taken from the
+     * counts of the state without starting any orbit.
+     */
+    @Test
+    public void testTiledReducedEqualsScratch() {
+        Complex upLeft = new Complex(-0.75, 0.25);
+        TileCache tileCache = new TileCache();
+        Counting deep = new Counting(getDataBox(300, DataBox.DEFAULT_POWER, upLeft));
+        deep.setTileCache(tileCache);
+        deep.setIterationState(null);
+        deep.render();
+
+        DataBox dataBox = getDataBox(80, DataBox.DEFAULT_POWER, upLeft);
+        Counting reduced = new Counting(dataBox);
+        reduced.setTileCache(tileCache);
+        reduced.setIterationState(deep.getIterationState());
+        MandelbrotSimple scratch = new MandelbrotSimple(dataBox, false);
+        scratch.setTileCache(new TileCache());
+
+        assertArrayEquals(scratch.render(), reduced.render());
+        assertEquals(0, reduced.starts.get());
+        assertSame(deep.getIterationState(), reduced.getIterationState());
+    }
+
+    /**
+     * Return the data of a square view of SIZE pixels and side 3.
+     *
+     * @param maxIterations the maximum number of iterations.
+     * @param power the power of the fractal.
+     * @param upLeft the up left corner of the view.
+     * @return the DataBox of the view.
+     */
+    private static DataBox getDataBox(int maxIterations, Complex power, Complex upLeft) {
+        Complex downRight = new Complex(upLeft.getReal() + 3, upLeft.getImag() - 3);
+        return new DataBox(maxIterations, power, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(SIZE, SIZE, upLeft, downRight), null);
+    }
+
+    /**
+     * A MandelbrotSimple that counts the orbits started from z = 0.
+     */
+    private static class Counting extends MandelbrotSimple {
+
+        /**
+         * Number of orbits started.
+         */
+        final AtomicInteger starts = new AtomicInteger(0);
+
+        /**
+         * Create a Counting instance with the given data.
+         *
+         * @param dataBox the data of this fractal instance.
+         */
+        Counting(DataBox dataBox) {
+            super(dataBox, false);
+        }
+
+        @Override
+        protected Orbit startOrbit(Complex c) {
+            starts.incrementAndGet();
+            return super.startOrbit(c);
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.mandelbrot.MandelbrotBase.Symmetry;
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.ColorPalette;
+import deglans.fractalview.utility.Complex;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the symmetric rendering of MandelbrotBase: the geometry
+ * of the mirror and the mirrored renders against the full ones.
+ * The views have a power of 2 scale, so that the points of a pixel and
+ * of its mirror are exactly symmetric.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class MirrorTest {
+
+    /**
+     * Maximum number of iterations of the renders.
+     */
+    private static final int MAX_ITERATIONS = 200;
+
+    /**
+     * Test that an axis is accepted only on a pixel or half pixel position.
+     */
+    @Test
+    public void testMirrorAxis() {
+        assertEquals(6, MandelbrotBase.getMirrorAxis(3));
+        assertEquals(5, MandelbrotBase.getMirrorAxis(2.5));
+        assertEquals(0, MandelbrotBase.getMirrorAxis(0));
+        assertEquals(6, MandelbrotBase.getMirrorAxis(3 + MandelbrotBase.SYMMETRY_TOLERANCE / 2));
+        assertEquals(-1, MandelbrotBase.getMirrorAxis(2.3));
+        assertEquals(-1, MandelbrotBase.getMirrorAxis(-1));
+        assertEquals(-1, MandelbrotBase.getMirrorAxis(1e10));
+    }
+
+    /**
+     * Test the conjugate mirror: the rows below the axis are copied from the
+     * rows above, the axis row and the rows without a mirror are calculated.
+     */
+    @Test
+    public void testConjugateMirror() {
+        final int width = 4, height = 8, axisY = 6;
+
+        for (int x = 0; x < width; x++) {
+            assertEquals(-1, MandelbrotBase.getMirror(Symmetry.CONJUGATE, -1, axisY, width, height, x, 2));
+            assertEquals(-1, MandelbrotBase.getMirror(Symmetry.CONJUGATE, -1, axisY, width, height, x, 3));
+            assertEquals(2 * width + x,
+                    MandelbrotBase.getMirror(Symmetry.CONJUGATE, -1, axisY, width, height, x, 4));
+            assertEquals(x, MandelbrotBase.getMirror(Symmetry.CONJUGATE, -1, axisY, width, height, x, 6));
+            assertEquals(-1, MandelbrotBase.getMirror(Symmetry.CONJUGATE, -1, axisY, width, height, x, 7));
+        }
+        checkSources(Symmetry.CONJUGATE, -1, axisY, width, height);
+        checkSources(Symmetry.CONJUGATE, -1, 5, width, height);
+    }
+
+    /**
+     * Test the origin mirror: a pixel is copied from the pixel opposite to
+     * the center, on the center row only the right half is copied.
+     */
+    @Test
+    public void testOriginMirror() {
+        final int width = 7, height = 5, axisX = 6, axisY = 4;
+
+        assertEquals(-1, MandelbrotBase.getMirror(Symmetry.ORIGIN, axisX, axisY, width, height, 3, 2));
+        assertEquals(-1, MandelbrotBase.getMirror(Symmetry.ORIGIN, axisX, axisY, width, height, 1, 2));
+        assertEquals(2 * width + 1,
+                MandelbrotBase.getMirror(Symmetry.ORIGIN, axisX, axisY, width, height, 5, 2));
+        assertEquals(0 * width + 2,
+                MandelbrotBase.getMirror(Symmetry.ORIGIN, axisX, axisY, width, height, 4, 4));
+        // The mirror of (5, 4) about the column 2 is outside the view
+        assertEquals(-1, MandelbrotBase.getMirror(Symmetry.ORIGIN, 4, axisY, width, height, 5, 4));
+        checkSources(Symmetry.ORIGIN, axisX, axisY, width, height);
+        checkSources(Symmetry.ORIGIN, 5, 3, 6, 4);
+    }
+
+    /**
+     * Test that a Mandelbrot view straddling the real axis gives the same
+     * colors when it is mirrored, with and without TileCache. The tiled view
+     * has a whole tile in the mirrored part, that is not calculated.
+     */
+    @Test
+    public void testConjugateRender() {
+        DataBox dataBox = getDataBox(64, 48, new Complex(-2.5, 1.5), new Complex(1.5, -1.5));
+        assertArrayEquals(new Unmirrored(dataBox).render(), new MandelbrotSimple(dataBox, false).render());
+
+        // 2 columns and 4 rows of tiles, the last row is entirely mirrored
+        dataBox = getDataBox(64, 160, new Complex(-2.5, 5), new Complex(1.5, -5));
+        Unmirrored full = new Unmirrored(dataBox);
+        full.setTileCache(new TileCache());
+        MandelbrotSimple mirrored = new MandelbrotSimple(dataBox, false);
+        TileCache tileCache = new TileCache();
+        mirrored.setTileCache(tileCache);
+
+        assertArrayEquals(full.render(), mirrored.render());
+        assertEquals(6, tileCache.getMisses());
+    }
+
+    /**
+     * Test that a Julia view centered on the origin, with the axes on half
+     * pixels, gives the same colors when it is mirrored.
+     */
+    @Test
+    public void testOriginRender() {
+        DataBox dataBox = getDataBox(63, 63, new Complex(-1.96875, 1.96875), new Complex(1.96875, -1.96875));
+        JuliaSimple full = new JuliaSimple(dataBox, false) {
+            @Override
+            protected Symmetry getSymmetry() {
+                return Symmetry.NONE;
+            }
+        };
+        JuliaSimple mirrored = new JuliaSimple(dataBox, false);
+
+        assertEquals(Symmetry.ORIGIN, mirrored.getSymmetry());
+        assertArrayEquals(full.render(), mirrored.render());
+    }
+
+    /**
+     * Test that the supersampled distance estimation is mirrored.
+     */
+    @Test
+    public void testDistanceRender() {
+        DataBox dataBox = getDataBox(64, 48, new Complex(-2.5, 1.5), new Complex(1.5, -1.5));
+        ColorPalette colorPalette = new ColorPalette(MAX_ITERATIONS, false);
+        MandelbrotDistance full = new MandelbrotDistance(dataBox, colorPalette, 4) {
+            @Override
+            protected Symmetry getSymmetry() {
+                return Symmetry.NONE;
+            }
+        };
+        MandelbrotDistance mirrored = new MandelbrotDistance(dataBox, colorPalette, 4);
+
+        assertEquals(Symmetry.CONJUGATE, mirrored.getSymmetry());
+        assertArrayEquals(full.render(), mirrored.render());
+    }
+
+    /**
+     * Check that every mirrored pixel is the mirror of its source and that
+     * its source is calculated.
+     *
+     * @param symmetry the symmetry of the fractal.
+     * @param axisX the doubled position of the imaginary axis.
+     * @param axisY the doubled position of the real axis.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     */
+    private static void checkSources(Symmetry symmetry, int axisX, int axisY, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int source = MandelbrotBase.getMirror(symmetry, axisX, axisY, width, height, x, y);
+                if (source < 0) {
+                    continue;
+                }
+                int sx = source % width;
+                int sy = source / width;
+                assertEquals(axisY - y, sy);
+                assertEquals((symmetry == Symmetry.ORIGIN) ? axisX - x : x, sx);
+                assertEquals(-1, MandelbrotBase.getMirror(symmetry, axisX, axisY, width, height, sx, sy));
+            }
+        }
+    }
+
+    /**
+     * Return the data of a view.
+     *
+     * @param width the width of the view.
+     * @param height the height of the view.
+     * @param upLeft the up left corner of the view.
+     * @param downRight the down right corner of the view.
+     * @return the DataBox of the view.
+     */
+    private static DataBox getDataBox(int width, int height, Complex upLeft, Complex downRight) {
+        return new DataBox(MAX_ITERATIONS, DataBox.DEFAULT_POWER, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(width, height, upLeft, downRight), null);
+    }
+
+    /**
+     * A MandelbrotSimple that is calculated without mirror.
+     */
+    private static class Unmirrored extends MandelbrotSimple {
+
+        /**
+         * Create an Unmirrored instance with the given data.
+         *
+         * @param dataBox the data of this fractal instance.
+         */
+        Unmirrored(DataBox dataBox) {
+            super(dataBox, false);
+        }
+
+        @Override
+        protected Symmetry getSymmetry() {
+            return Symmetry.NONE;
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 Deglans Dalpasso.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Deglans Dalpasso - initial API and implementation and initial documentation
+ */
+package deglans.fractalview.mandelbrot;
+
+import deglans.fractalview.utility.CartesianPlane;
+import deglans.fractalview.utility.Complex;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests class for the TileCache: the quantization of the grid, the keys,
+ * the LRU eviction within the budget and the tiled renders.
+ *
+ * @version 0.1
+ * @author Deglans Dalpasso
+ */
+public class TileCacheTest {
+
+    /**
+     * Memory used by a tile in bytes.
+     */
+    private static final long TILE_BYTES = 4L * TileCache.TILE_SIZE * TileCache.TILE_SIZE;
+
+    /**
+     * Maximum number of iterations of the renders.
+     */
+    private static final int MAX_ITERATIONS = 100;
+
+    /**
+     * Test that the scales of the same zoom level share the grid and that
+     * the grid is close to the scale.
+     */
+    @Test
+    public void testGridScale() {
+        double[] scales = {1, 16, 123.456, 1e-3, 7.77e12};
+        for (double scale : scales) {
+            double grid = TileCache.getGridScale(scale);
+            assertEquals(grid, TileCache.getGridScale(grid), 0);
+            assertEquals(grid, TileCache.getGridScale(scale * (1 + 1e-13)), 0);
+            assertEquals(grid, TileCache.getGridScale(scale * (1 - 1e-13)), 0);
+            assertEquals(scale, grid, scale * 1e-9);
+            assertNotEquals(grid, TileCache.getGridScale(scale * 1.01));
+        }
+        // The power of 2 scales are already on the grid
+        assertEquals(16, TileCache.getGridScale(16), 0);
+    }
+
+    /**
+     * Test that the keys are equal only for the same fractal, parameters
+     * and tile of the same grid.
+     */
+    @Test
+    public void testKey() {
+        DataBox dataBox = getDataBox(MAX_ITERATIONS, DataBox.DEFAULT_POWER);
+        MandelbrotSimple fractal = new MandelbrotSimple(dataBox, false);
+        double scale = TileCache.getGridScale(123.456);
+
+        TileCache.Key key = new TileCache.Key(fractal, dataBox, scale, 3, -2);
+        TileCache.Key same = new TileCache.Key(new MandelbrotSimple(dataBox, false), dataBox,
+                TileCache.getGridScale(123.456 * (1 + 1e-13)), 3, -2);
+        assertEquals(key, same);
+        assertEquals(key.hashCode(), same.hashCode());
+
+        assertNotEquals(key, new TileCache.Key(fractal, dataBox, scale, 4, -2));
+        assertNotEquals(key, new TileCache.Key(fractal, dataBox, scale, 3, -1));
+        assertNotEquals(key, new TileCache.Key(fractal, dataBox, TileCache.getGridScale(124), 3, -2));
+        assertNotEquals(key, new TileCache.Key(new JuliaSimple(dataBox, false), dataBox, scale, 3, -2));
+        DataBox deeper = getDataBox(MAX_ITERATIONS + 1, DataBox.DEFAULT_POWER);
+        assertNotEquals(key, new TileCache.Key(fractal, deeper, scale, 3, -2));
+        DataBox power = getDataBox(MAX_ITERATIONS, new Complex(3, 0));
+        assertNotEquals(key, new TileCache.Key(fractal, power, scale, 3, -2));
+    }
+
+    /**
+     * Test that the least recently used tiles are removed when the budget
+     * is exceeded, and the count of hits and misses.
+     */
+    @Test
+    public void testEviction() {
+        DataBox dataBox = getDataBox(MAX_ITERATIONS, DataBox.DEFAULT_POWER);
+        MandelbrotSimple fractal = new MandelbrotSimple(dataBox, false);
+        TileCache tileCache = new TileCache(3 * TILE_BYTES);
+
+        TileCache.Key[] keys = new TileCache.Key[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new TileCache.Key(fractal, dataBox, 16, i, 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            tileCache.put(keys[i], new int[TileCache.TILE_SIZE * TileCache.TILE_SIZE]);
+        }
+        assertEquals(3 * TILE_BYTES, tileCache.getMemory());
+
+        // The tile 0 is used, so the tile 1 is the least recently used
+        assertNotNull(tileCache.get(keys[0]));
+        tileCache.put(keys[3], new int[TileCache.TILE_SIZE * TileCache.TILE_SIZE]);
+        assertEquals(3 * TILE_BYTES, tileCache.getMemory());
+        assertNull(tileCache.get(keys[1]));
+        assertNotNull(tileCache.get(keys[0]));
+        assertNotNull(tileCache.get(keys[2]));
+        assertNotNull(tileCache.get(keys[3]));
+        assertEquals(4, tileCache.getHits());
+        assertEquals(1, tileCache.getMisses());
+
+        tileCache.clear();
+        assertEquals(0, tileCache.getMemory());
+    }
+
+    /**
+     * Test that a tiled render of a view on the grid is the same as the
+     * plain render, and that a render of the same view and of a view moved
+     * by a tile are taken from the cache.
+     */
+    @Test
+    public void testTiledRender() {
+        DataBox dataBox = getDataBox(MAX_ITERATIONS, DataBox.DEFAULT_POWER);
+        int[] plain = new MandelbrotSimple(dataBox, false).render();
+
+        TileCache tileCache = new TileCache();
+        MandelbrotSimple tiled = new MandelbrotSimple(dataBox, false);
+        tiled.setTileCache(tileCache);
+        assertArrayEquals(plain, tiled.render());
+        long tiles = tileCache.getMisses();
+        assertEquals(0, tileCache.getHits());
+
+        MandelbrotSimple cached = new MandelbrotSimple(dataBox, false);
+        cached.setTileCache(tileCache);
+        assertArrayEquals(plain, cached.render());
+        assertEquals(tiles, tileCache.getMisses());
+        assertEquals(tiles, tileCache.getHits());
+
+        // Moved right by a tile: only the new column of tiles is calculated
+        DataBox moved = new DataBox(MAX_ITERATIONS, DataBox.DEFAULT_POWER, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(128, 96, new Complex(-2, 1.5), new Complex(2, -1.5)), null);
+        MandelbrotSimple pan = new MandelbrotSimple(moved, false);
+        pan.setTileCache(tileCache);
+        assertArrayEquals(new MandelbrotSimple(moved, false).render(), pan.render());
+        assertEquals(tiles + 2, tileCache.getMisses());
+    }
+
+    /**
+     * Return the data of a view of 128 x 96 pixels with a scale of 32,
+     * whose corner is on the grid of the tiles.
+     *
+     * @param maxIterations the maximum number of iterations.
+     * @param power the power of the fractal.
+     * @return the DataBox of the view.
+     */
+    private static DataBox getDataBox(int maxIterations, Complex power) {
+        return new DataBox(maxIterations, power, DataBox.DEFAULT_CONSTANT,
+                new CartesianPlane(128, 96, new Complex(-4, 1.5), new Complex(0, -1.5)), null);
+    }
+
+}